@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.builder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.log.KotlinLogger;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.project.Project;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Reads and parses all Kotlin files of a project on a fork-join pool, so that the PSI 
+ * cache is warm before the first analysis. Files are independent, so the work is split 
+ * into chunks which are parsed in parallel on all cores.
+ */
+public class KotlinParallelParser {
+    
+    private static final int FILES_PER_TASK = 8;
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    
+    private KotlinParallelParser() {}
+    
+    public static void parseProjectFiles(@NotNull Project project, @Nullable ProgressHandle progress) {
+        List<FileObject> files = new ArrayList<>(KotlinPsiManager.INSTANCE.getFilesByProject(project));
+        if (files.isEmpty()) {
+            return;
+        }
+        
+        if (progress != null) {
+            progress.progress("Parsing Kotlin files");
+            progress.switchToDeterminate(files.size());
+        }
+        
+        long start = System.currentTimeMillis();
+        POOL.invoke(new ParseTask(files, progress, new AtomicInteger()));
+        KotlinLogger.INSTANCE.logInfo(files.size() + " Kotlin files of " + 
+                project.getProjectDirectory().getPath() + " parsed in " + 
+                (System.currentTimeMillis() - start) + " ms");
+    }
+    
+    private static class ParseTask extends RecursiveAction {
+        
+        private final List<FileObject> files;
+        private final ProgressHandle progress;
+        private final AtomicInteger parsed;
+        
+        ParseTask(List<FileObject> files, ProgressHandle progress, AtomicInteger parsed) {
+            this.files = files;
+            this.progress = progress;
+            this.parsed = parsed;
+        }
+        
+        @Override
+        protected void compute() {
+            if (files.size() > FILES_PER_TASK) {
+                int middle = files.size() / 2;
+                invokeAll(new ParseTask(files.subList(0, middle), progress, parsed),
+                        new ParseTask(files.subList(middle, files.size()), progress, parsed));
+                return;
+            }
+            
+            for (FileObject file : files) {
+                parse(file);
+                int count = parsed.incrementAndGet();
+                if (progress != null) {
+                    progress.progress(count);
+                }
+            }
+        }
+        
+        private static void parse(FileObject file) {
+            try {
+                KotlinPsiManager.INSTANCE.getParsedFile(file);
+            } catch (IOException | RuntimeException ex) {
+                KotlinLogger.INSTANCE.logException("Cannot parse " + file.getPath(), ex);
+            }
+        }
+        
+    }
+    
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.builder;
+
+import com.intellij.openapi.util.text.StringUtil;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.openide.filesystems.FileObject;
+
+/**
+ * Parsed files keyed by file and the parsed text. Values are soft references,
+ * so parsed files can be collected under memory pressure, and the number of entries is
+ * limited by {@code -Dkotlin.psi.cache.entries}. All methods are thread safe.
+ */
+public class KotlinPsiFileCache {
+
+    private static final int MAX_ENTRIES = Integer.getInteger("kotlin.psi.cache.entries", 4096);
+    
+    static class Entry {
+        
+        private final long contentHash;
+        private final SoftReference<KtFile> ktFile;
+        
+        Entry(long contentHash, KtFile ktFile) {
+            this.contentHash = contentHash;
+            this.ktFile = new SoftReference<>(ktFile);
+        }
+        
+        long getContentHash() {
+            return contentHash;
+        }
+        
+        @Nullable
+        KtFile getKtFile() {
+            return ktFile.get();
+        }
+        
+    }
+    
+    private final LinkedHashMap<FileObject, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong collected = new AtomicLong();
+    
+    KotlinPsiFileCache() {}
+    
+    /**
+     * Returns a 64-bit hash of the text. It only rejects changed content quickly, 
+     * a matching hash is confirmed by comparing the text.
+     */
+    static long contentHash(@NotNull CharSequence text) {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < text.length(); i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        
+        return 31 * hash + text.length();
+    }
+    
+    /**
+     * Returns the cached file if it was parsed from the given text.
+     */
+    @Nullable
+    KtFile get(@NotNull FileObject file, @NotNull CharSequence text, long contentHash) {
+        Entry entry = getEntry(file);
+        KtFile ktFile = entry != null && entry.getContentHash() == contentHash ? entry.getKtFile() : null;
+        // the parsed text is kept by the view provider, so comparing it copies nothing
+        if (ktFile != null && !StringUtil.equals(ktFile.getViewProvider().getContents(), text)) {
+            ktFile = null;
+        }
+        if (ktFile != null) {
+            hits.incrementAndGet();
+        }
+        
+        return ktFile;
+    }
+    
+    @Nullable
+    private synchronized Entry getEntry(FileObject file) {
+        Entry entry = entries.get(file);
+        if (entry != null && entry.getKtFile() == null) {
+            entries.remove(file);
+            collected.incrementAndGet();
+            return null;
+        }
+        
+        return entry;
+    }
+    
+    void put(@NotNull FileObject file, long contentHash, @NotNull KtFile ktFile) {
+        misses.incrementAndGet();
+        synchronized (this) {
+            entries.put(file, new Entry(contentHash, ktFile));
+            
+            Iterator<Map.Entry<FileObject, Entry>> iterator = entries.entrySet().iterator();
+            while (entries.size() > MAX_ENTRIES && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+    
+    public synchronized void remove(@NotNull FileObject file) {
+        entries.remove(file);
+    }
+    
+    public synchronized void clear() {
+        entries.clear();
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public long getHitCount() {
+        return hits.get();
+    }
+    
+    /**
+     * Number of full parses, i.e. lookups which found no parsed file for the content.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+    
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+    
+    /**
+     * Number of entries whose files were collected by the garbage collector.
+     */
+    public long getCollectedCount() {
+        return collected.get();
+    }
+    
+}
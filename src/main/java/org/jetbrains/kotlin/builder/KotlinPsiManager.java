@@ -16,11 +16,9 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.builder;
 
-import com.google.common.collect.Sets;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.util.text.StringUtilRt;
 import com.intellij.openapi.vfs.CharsetToolkit;
-import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiFileFactory;
 import com.intellij.psi.impl.PsiFileFactoryImpl;
 import com.intellij.testFramework.LightVirtualFile;
@@ -31,7 +29,6 @@ import java.util.Set;
 import org.jetbrains.kotlin.projectsextensions.KotlinProjectHelper;
 import org.jetbrains.kotlin.model.KotlinEnvironment;
 import org.jetbrains.kotlin.model.KotlinLightVirtualFile;
-import org.jetbrains.kotlin.project.KotlinProjectConstants;
 import org.jetbrains.kotlin.utils.KotlinMockProject;
 import org.jetbrains.kotlin.utils.ProjectUtils;
 import org.jetbrains.annotations.NotNull;
@@ -41,7 +38,6 @@ import org.jetbrains.kotlin.idea.KotlinLanguage;
 import org.jetbrains.kotlin.log.KotlinLogger;
 import org.jetbrains.kotlin.psi.KtFile;
 import org.netbeans.api.project.Project;
-import org.netbeans.api.project.SourceGroup;
 import org.netbeans.api.project.ui.OpenProjects;
 import org.openide.filesystems.FileObject;
 
@@ -49,37 +45,46 @@ public class KotlinPsiManager {
     
     public static final KotlinPsiManager INSTANCE = new KotlinPsiManager();
     
-    private final Map<FileObject, KtFile> cachedKtFiles = new HashMap<>();
+    private final KotlinPsiFileCache fileCache = new KotlinPsiFileCache();
+    private final Map<Project, KotlinSourceRegistry> registries = new HashMap<>();
     
     private KotlinPsiManager(){}
     
+    /**
+     * Returns all Kotlin files of the project. The returned set is an immutable snapshot.
+     */
     @NotNull
     public Set<FileObject> getFilesByProject(Project project){
-        Set<FileObject> ktFiles = Sets.newLinkedHashSet();
-        
-        for (SourceGroup srcGroup : KotlinProjectHelper.INSTANCE.getKotlinSources(project).//project.getKotlinSources().
-                getSourceGroups(KotlinProjectConstants.KOTLIN_SOURCE.toString())){
-            for (FileObject file : srcGroup.getRootFolder().getChildren()){
-                if (isKotlinFile(file)){
-                    ktFiles.add(file);
-                }
-            }
+        return getRegistry(project).getFiles();
+    }
+    
+    @NotNull
+    public Set<FileObject> getFilesByPackage(Project project, String packageName){
+        return getRegistry(project).getFiles(packageName);
+    }
+    
+    public void removeProject(Project project){
+        KotlinSourceRegistry registry;
+        synchronized (registries) {
+            registry = registries.remove(project);
+        }
+        if (registry != null) {
+            registry.dispose();
         }
-        
-        return ktFiles;
     }
     
-        /**
-     * This method parses the input file. 
-     * @param file syntaxFile that was created with createSyntaxFile method
-     * @return the result of {@link #parseText(java.lang.String, java.io.File) parseText} method
-     * @throws IOException 
-     */
-    @Nullable
-    private KtFile parseFile(@NotNull FileObject file) throws IOException {
-        return parseText(StringUtilRt.convertLineSeparators(file.asText()), file);
+    private KotlinSourceRegistry getRegistry(Project project){
+        synchronized (registries) {
+            KotlinSourceRegistry registry = registries.get(project);
+            if (registry == null) {
+                registry = new KotlinSourceRegistry(project);
+                registries.put(project, registry);
+            }
+            
+            return registry;
+        }
     }
-
+    
     /**
      * This method parses text from the input file.
      * @param text Text of temporary file.
@@ -112,53 +117,36 @@ public class KotlinPsiManager {
     
     public KtFile parseTextForDiagnostic(@NotNull String text, @NotNull FileObject file) {
         StringUtil.assertValidSeparators(text);
-
-        if (cachedKtFiles.containsKey(file)) {
-            updatePsiFile(text, file);
-        } else {
-            try {
-                KtFile ktFile = parseFile(file);
-                if (ktFile == null) {
-                    return null;
-                }
-                cachedKtFiles.put(file, ktFile);
-            } catch (IOException ex) {
-                KotlinLogger.INSTANCE.logException("parseFile exception", ex);
-            }
-        }
-        
-        return cachedKtFiles.get(file);
+        return getKtFile(text, file);
     }
     
     @NotNull
     public KtFile getParsedFile(@NotNull FileObject file) throws IOException {
-        if (!cachedKtFiles.containsKey(file)) {
-            KtFile ktFile = parseFile(file);
-            cachedKtFiles.put(file, ktFile);
-        } else {
-            updatePsiFile(file);
-        }
-            
-        return cachedKtFiles.get(file);
+        return getKtFile(StringUtilRt.convertLineSeparators(file.asText()), file);
     }
     
-    private void updatePsiFile(@NotNull FileObject file) throws IOException{
-        String code = file.asText();
-        String sourceCodeWithoutCR = StringUtilRt.convertLineSeparators(code);
-        PsiFile currentParsedFile = cachedKtFiles.get(file);
-        if (!currentParsedFile.getText().equals(sourceCodeWithoutCR)) {
-            KtFile ktFile = parseText(sourceCodeWithoutCR, file);
-            cachedKtFiles.put(file, ktFile);
-        }
+    public KotlinPsiFileCache getFileCache() {
+        return fileCache;
     }
     
-    private void updatePsiFile(@NotNull String sourceCode, @NotNull FileObject file){
-        String sourceCodeWithoutCR = StringUtilRt.convertLineSeparators(sourceCode);
-        PsiFile currentParsedFile = cachedKtFiles.get(file);
-        if (!currentParsedFile.getText().equals(sourceCodeWithoutCR)) {
-            KtFile ktFile = parseText(sourceCodeWithoutCR, file);
-            cachedKtFiles.put(file, ktFile);
+    /**
+     * Returns the cached file if it was parsed from the same text, otherwise parses the 
+     * text into a new file and caches it instead. Parsed files are never modified, so 
+     * they can be read without locking while a newer version of the file is parsed.
+     */
+    private KtFile getKtFile(@NotNull String text, @NotNull FileObject file) {
+        long contentHash = KotlinPsiFileCache.contentHash(text);
+        KtFile ktFile = fileCache.get(file, text, contentHash);
+        if (ktFile != null) {
+            return ktFile;
         }
+        
+        ktFile = parseText(text, file);
+        if (ktFile != null) {
+            fileCache.put(file, contentHash, ktFile);
+        }
+        
+        return ktFile;
     }
     
     @Nullable
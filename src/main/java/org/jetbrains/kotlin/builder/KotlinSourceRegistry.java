@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.builder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinAnalysisProjectCache;
+import org.jetbrains.kotlin.log.KotlinLogger;
+import org.jetbrains.kotlin.model.KotlinAnalysisFileCache;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.netbeans.api.project.Project;
+import org.openide.filesystems.FileAttributeEvent;
+import org.openide.filesystems.FileChangeListener;
+import org.openide.filesystems.FileEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileRenameEvent;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Kotlin source files of one project. The {@code src} folder is walked once, after that
+ * the registry is kept up to date by a recursive file change listener. The package index 
+ * is built on the first package lookup and changed files are re-indexed lazily.
+ * 
+ * Files are parsed and evicted from the PSI cache without holding the lock of the 
+ * registry, as the PSI manager and the cache take locks of their own.
+ */
+class KotlinSourceRegistry implements FileChangeListener {
+
+    private final Project project;
+    private volatile FileObject srcDir = null;
+    
+    private final Set<FileObject> files = new LinkedHashSet<>();
+    private volatile Set<FileObject> snapshot = Collections.emptySet();
+    
+    private Map<String, Set<FileObject>> filesByPackage = null;
+    private final Map<FileObject, String> packages = new HashMap<>();
+    // files to index with the number of the change which made them dirty
+    private final Map<FileObject, Long> filesToIndex = new LinkedHashMap<>();
+    private long changes = 0;
+    
+    KotlinSourceRegistry(@NotNull Project project) {
+        this.project = project;
+    }
+    
+    @NotNull
+    Set<FileObject> getFiles() {
+        if (srcDir == null) {
+            init();
+        }
+        
+        return snapshot;
+    }
+    
+    @NotNull
+    Set<FileObject> getFiles(@NotNull String packageName) {
+        getFiles();
+        Map<FileObject, Long> toIndex;
+        synchronized (this) {
+            if (filesByPackage == null) {
+                filesByPackage = new HashMap<>();
+                for (FileObject file : files) {
+                    markToIndex(file);
+                }
+            }
+            toIndex = new LinkedHashMap<>(filesToIndex);
+        }
+        
+        Map<FileObject, String> packageNames = new HashMap<>();
+        for (FileObject file : toIndex.keySet()) {
+            packageNames.put(file, getPackageName(file));
+        }
+        
+        synchronized (this) {
+            if (filesByPackage == null) {
+                return Collections.emptySet();
+            }
+            
+            for (Map.Entry<FileObject, Long> entry : toIndex.entrySet()) {
+                FileObject file = entry.getKey();
+                // a file changed or removed in the meantime is indexed by the next lookup
+                if (entry.getValue().equals(filesToIndex.get(file))) {
+                    filesToIndex.remove(file);
+                    index(file, packageNames.get(file));
+                }
+            }
+            
+            Set<FileObject> packageFiles = filesByPackage.get(packageName);
+            return packageFiles != null 
+                    ? Collections.unmodifiableSet(new LinkedHashSet<>(packageFiles)) 
+                    : Collections.<FileObject>emptySet();
+        }
+    }
+    
+    synchronized void dispose() {
+        if (srcDir != null) {
+            srcDir.removeRecursiveListener(this);
+            srcDir = null;
+        }
+        files.clear();
+        packages.clear();
+        filesToIndex.clear();
+        filesByPackage = null;
+        snapshot = Collections.emptySet();
+    }
+    
+    private synchronized void init() {
+        if (srcDir != null) {
+            return;
+        }
+        
+        FileObject dir = project.getProjectDirectory().getFileObject("src");
+        if (dir == null) {
+            return;
+        }
+        
+        srcDir = dir;
+        srcDir.addRecursiveListener(this);
+        addFiles(srcDir, new ArrayList<FileObject>());
+        publish();
+    }
+    
+    private void addFiles(FileObject fo, List<FileObject> added) {
+        if (fo.isFolder()) {
+            if (isResourcesFolder(fo)) {
+                return;
+            }
+            for (FileObject child : fo.getChildren()) {
+                addFiles(child, added);
+            }
+        } else if (KotlinPsiManager.INSTANCE.isKotlinFile(fo) && !isInResources(fo)) {
+            if (files.add(fo)) {
+                added.add(fo);
+                if (filesByPackage != null) {
+                    markToIndex(fo);
+                }
+            }
+        }
+    }
+    
+    private void markToIndex(FileObject file) {
+        filesToIndex.put(file, ++changes);
+    }
+    
+    /**
+     * Removes {@code fo} and the files under it. The caller evicts the returned files 
+     * from the PSI cache after releasing the lock.
+     */
+    private List<FileObject> removeFiles(FileObject fo) {
+        List<FileObject> removed = new ArrayList<>();
+        Iterator<FileObject> iterator = files.iterator();
+        while (iterator.hasNext()) {
+            FileObject file = iterator.next();
+            if (file.equals(fo) || FileUtil.isParentOf(fo, file)) {
+                iterator.remove();
+                unindex(file);
+                filesToIndex.remove(file);
+                removed.add(file);
+            }
+        }
+        
+        return removed;
+    }
+    
+    private static void evict(List<FileObject> removed) {
+        for (FileObject file : removed) {
+            KotlinPsiManager.INSTANCE.getFileCache().remove(file);
+        }
+    }
+    
+    /**
+     * Reports files changed on disk to the analysis cache, so that the files which depend 
+     * on them are analyzed again. Called without holding the lock of the registry.
+     */
+    private void invalidateAnalysis(List<FileObject> changed) {
+        for (FileObject file : changed) {
+            KotlinAnalysisProjectCache.INSTANCE.fileChanged(project, file);
+        }
+    }
+    
+    private void publish() {
+        snapshot = Collections.unmodifiableSet(new LinkedHashSet<>(files));
+    }
+    
+    private void index(FileObject file, @Nullable String packageName) {
+        unindex(file);
+        if (packageName == null) {
+            return;
+        }
+        
+        packages.put(file, packageName);
+        Set<FileObject> packageFiles = filesByPackage.get(packageName);
+        if (packageFiles == null) {
+            packageFiles = new LinkedHashSet<>();
+            filesByPackage.put(packageName, packageFiles);
+        }
+        packageFiles.add(file);
+    }
+    
+    private void unindex(FileObject file) {
+        String packageName = packages.remove(file);
+        if (packageName != null && filesByPackage != null) {
+            Set<FileObject> packageFiles = filesByPackage.get(packageName);
+            if (packageFiles != null) {
+                packageFiles.remove(file);
+                if (packageFiles.isEmpty()) {
+                    filesByPackage.remove(packageName);
+                }
+            }
+        }
+    }
+    
+    @Nullable
+    private static String getPackageName(FileObject file) {
+        if (!file.isValid()) {
+            return null;
+        }
+        
+        try {
+            KtFile ktFile = KotlinPsiManager.INSTANCE.getParsedFile(file);
+            return ktFile != null ? ktFile.getPackageFqName().asString() : null;
+        } catch (IOException ex) {
+            KotlinLogger.INSTANCE.logException("Cannot read " + file.getPath(), ex);
+            return null;
+        }
+    }
+    
+    private boolean isInResources(FileObject fo) {
+        for (FileObject parent = fo.getParent(); parent != null && !parent.equals(srcDir); 
+                parent = parent.getParent()) {
+            if (isResourcesFolder(parent)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private static boolean isResourcesFolder(FileObject fo) {
+        if (!fo.getName().equals("resources") || fo.getParent() == null) {
+            return false;
+        }
+        
+        String parentName = fo.getParent().getName();
+        return parentName.equals("test") || parentName.equals("main");
+    }
+    
+    @Override
+    public void fileFolderCreated(FileEvent fe) {
+        fileCreated(fe.getFile());
+    }
+
+    @Override
+    public void fileDataCreated(FileEvent fe) {
+        fileCreated(fe.getFile());
+    }
+    
+    private void fileCreated(FileObject fo) {
+        List<FileObject> added = new ArrayList<>();
+        synchronized (this) {
+            addFiles(fo, added);
+            publish();
+        }
+        invalidateAnalysis(added);
+    }
+
+    @Override
+    public void fileChanged(FileEvent fe) {
+        FileObject file = fe.getFile();
+        synchronized (this) {
+            if (!files.contains(file)) {
+                return;
+            }
+            if (filesByPackage != null) {
+                markToIndex(file);
+            }
+        }
+        invalidateAnalysis(Collections.singletonList(file));
+    }
+
+    @Override
+    public void fileDeleted(FileEvent fe) {
+        List<FileObject> removed;
+        synchronized (this) {
+            removed = removeFiles(fe.getFile());
+            publish();
+        }
+        evict(removed);
+        invalidateAnalysis(removed);
+    }
+
+    @Override
+    public void fileRenamed(FileRenameEvent fe) {
+        FileObject file = fe.getFile();
+        List<FileObject> removed;
+        synchronized (this) {
+            removed = removeFiles(file);
+            if (file.isValid()) {
+                addFiles(file, new ArrayList<FileObject>());
+            }
+            publish();
+        }
+        evict(removed);
+        if (!removed.isEmpty()) {
+            // the old paths of the renamed files are not known anymore
+            KotlinAnalysisProjectCache.INSTANCE.removeProjectCache(project);
+            KotlinAnalysisFileCache.INSTANCE.resetCache();
+        }
+    }
+
+    @Override
+    public void fileAttributeChanged(FileAttributeEvent fe) {
+    }
+    
+}
@@ -193,8 +193,11 @@ public class KotlinCompletionUtils {
                 false,false,false,null);
     }
     
-    public KtSimpleNameExpression getSimpleNameExpression(int identOffset) {
-        KtFile ktFile = KotlinParser.getFile();
+    public KtSimpleNameExpression getSimpleNameExpression(FileObject file, int identOffset) {
+        KtFile ktFile = KotlinParser.getFile(file);
+        if (ktFile == null) {
+            return null;
+        }
         PsiElement psi = ktFile.findElementAt(identOffset);
         
         return PsiTreeUtil.getParentOfType(psi, KtSimpleNameExpression.class);
@@ -323,7 +326,7 @@ public class KotlinCompletionUtils {
                     descriptor, styledDoc, prefix, project));
         }
     
-        KtFile ktFile = KotlinParser.getFile();
+        KtFile ktFile = KotlinParser.getFile(file);
         if (ktFile == null) {
             return proposals;
         }
@@ -353,7 +356,7 @@ public class KotlinCompletionUtils {
             }
         };
         
-        KtSimpleNameExpression simpleNameExpression = getSimpleNameExpression(identOffset);
+        KtSimpleNameExpression simpleNameExpression = getSimpleNameExpression(file, identOffset);
         if (simpleNameExpression != null) {
             return getReferenceVariants(simpleNameExpression,
                 nameFilter, file, analysisResultWithProvider);
@@ -16,17 +16,35 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.diagnostics.netbeans.parser;
 
+import com.intellij.openapi.util.text.StringUtilRt;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import org.jetbrains.kotlin.log.KotlinLogger;
+import java.util.Set;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.model.KotlinAnalysisFileCache;
 import org.jetbrains.kotlin.model.KotlinEnvironment;
+import org.jetbrains.kotlin.psi.KtFile;
 import org.jetbrains.kotlin.resolve.AnalysisResultWithProvider;
+import org.jetbrains.kotlin.resolve.DeclarationStampsKt;
+import org.jetbrains.kotlin.resolve.KotlinFileDependencyGraph;
 import org.jetbrains.kotlin.resolve.NetBeansAnalyzerFacadeForJVM;
-import org.jetbrains.kotlin.utils.ProjectUtils;
 import org.netbeans.api.project.Project;
+import org.openide.filesystems.FileObject;
 
 /**
- *
+ * Keeps analysis results per source file. When a file changes only the file itself is 
+ * invalidated, and if its declarations changed also the files which depend on them 
+ * (according to {@link KotlinFileDependencyGraph}). Other files keep their cached results.
+ * Files changed outside of the editor are reported by the source registry of the project.
+ * An edited file is always analyzed as a whole: every change is parsed into a new 
+ * {@link KtFile}, so bindings of the previous analysis can't be reused for its unchanged 
+ * declarations.
+ * 
  * @author Alexander.Baratynski
  */
 public class KotlinAnalysisProjectCache {
@@ -34,20 +52,59 @@ public class KotlinAnalysisProjectCache {
     public static final KotlinAnalysisProjectCache INSTANCE = 
             new KotlinAnalysisProjectCache();
     
-    private final Map<Project, AnalysisResultWithProvider> cache = new HashMap<>();
+    private final Map<Project, ProjectAnalysis> cache = new HashMap<>();
     
-    public AnalysisResultWithProvider getAnalysisResult(final Project project) {
+    public AnalysisResultWithProvider getAnalysisResult(Project project, KtFile ktFile) {
+        String path = ktFile.getVirtualFile().getPath();
         synchronized(project) {
-            if (cache.get(project) == null) {
-                final AnalysisResultWithProvider result = 
-                        NetBeansAnalyzerFacadeForJVM.INSTANCE.analyzeFilesWithJavaIntegration(project, 
-                        KotlinEnvironment.getEnvironment(project).getProject(), ProjectUtils.getSourceFilesWithDependencies(project));
-                cache.put(project, result);
-                KotlinLogger.INSTANCE.logInfo("Project " + 
-                        project.getProjectDirectory().getPath() + " analysis result cached");
+            ProjectAnalysis projectAnalysis = getProjectAnalysis(project);
+            Set<String> invalidated = projectAnalysis.checkFile(path, ktFile);
+            // the stamps are updated already, so the dependents are reset before an analysis 
+            // which can be cancelled
+            invalidated.remove(path);
+            KotlinAnalysisFileCache.INSTANCE.resetCache(invalidated);
+            
+            AnalysisResultWithProvider result = projectAnalysis.results.get(path);
+            if (result == null) {
+                List<KtFile> files = Collections.singletonList(ktFile);
+                result = analyze(project, files)
+                        .withResolutionInputs(projectAnalysis.getResolutionInputs(path));
+                projectAnalysis.record(files, result);
             }
             
-            return cache.get(project);
+            return result;
+        }
+    }
+    
+    /**
+     * Drops the results of a source file which was changed, created or deleted outside 
+     * of the editor, together with the results of the files which depend on it.
+     */
+    public void fileChanged(Project project, FileObject file) {
+        String path = file.getPath();
+        String text = readText(file);
+        Set<String> invalidated;
+        synchronized(project) {
+            ProjectAnalysis projectAnalysis = cache.get(project);
+            if (projectAnalysis == null) {
+                return;
+            }
+            invalidated = projectAnalysis.invalidate(path, text);
+        }
+        
+        KotlinAnalysisFileCache.INSTANCE.resetCache(invalidated);
+    }
+    
+    @Nullable
+    private static String readText(FileObject file) {
+        if (!file.isValid()) {
+            return null;
+        }
+        
+        try {
+            return StringUtilRt.convertLineSeparators(file.asText());
+        } catch (IOException ex) {
+            return null;
         }
     }
  
@@ -57,4 +114,124 @@ public class KotlinAnalysisProjectCache {
         }
     }
     
+    private ProjectAnalysis getProjectAnalysis(Project project) {
+        ProjectAnalysis projectAnalysis = cache.get(project);
+        if (projectAnalysis == null) {
+            projectAnalysis = new ProjectAnalysis();
+            cache.put(project, projectAnalysis);
+        }
+        
+        return projectAnalysis;
+    }
+    
+    private static AnalysisResultWithProvider analyze(Project project, Collection<KtFile> files) {
+        return NetBeansAnalyzerFacadeForJVM.INSTANCE.analyzeFilesWithJavaIntegration(project, 
+                        KotlinEnvironment.getEnvironment(project).getProject(), files);
+    }
+    
+    private static class FileStamps {
+        
+        private final String text;
+        private final int declarationStamp;
+        
+        FileStamps(String text, int declarationStamp) {
+            this.text = text;
+            this.declarationStamp = declarationStamp;
+        }
+        
+    }
+    
+    private static class ProjectAnalysis {
+        
+        private final Map<String, AnalysisResultWithProvider> results = new HashMap<>();
+        private final Map<String, FileStamps> stamps = new HashMap<>();
+        // replaced whenever the declarations a file can see may have changed
+        private final Map<String, Object> resolutionInputs = new HashMap<>();
+        private final KotlinFileDependencyGraph dependencyGraph = new KotlinFileDependencyGraph();
+        
+        Object getResolutionInputs(String path) {
+            Object inputs = resolutionInputs.get(path);
+            if (inputs == null) {
+                inputs = new Object();
+                resolutionInputs.put(path, inputs);
+            }
+            
+            return inputs;
+        }
+        
+        void record(Collection<KtFile> files, AnalysisResultWithProvider result) {
+            for (KtFile file : files) {
+                String path = file.getVirtualFile().getPath();
+                results.put(path, result);
+                if (!stamps.containsKey(path)) {
+                    stamps.put(path, new FileStamps(file.getText(), 
+                            DeclarationStampsKt.declarationStamp(file)));
+                }
+            }
+            dependencyGraph.update(files, result);
+        }
+        
+        /**
+         * Compares the file with the state it had when it was analyzed last time 
+         * and drops the results which could be affected by the change.
+         * @return paths of invalidated files
+         */
+        Set<String> checkFile(String path, KtFile file) {
+            Set<String> invalidated = new HashSet<>();
+            String text = file.getText();
+            FileStamps oldStamps = stamps.get(path);
+            if (oldStamps != null && oldStamps.text.equals(text)) {
+                return invalidated;
+            }
+            
+            int declarationStamp = DeclarationStampsKt.declarationStamp(file);
+            stamps.put(path, new FileStamps(text, declarationStamp));
+            
+            // a change of bodies only keeps the resolution inputs of the file
+            invalidated.add(path);
+            if (oldStamps == null) {
+                resolutionInputs.remove(path);
+            } else if (oldStamps.declarationStamp != declarationStamp) {
+                invalidated.addAll(dependencyGraph.getAffectedFiles(path));
+                for (String invalidatedPath : invalidated) {
+                    resolutionInputs.remove(invalidatedPath);
+                }
+            }
+            
+            for (String invalidatedPath : invalidated) {
+                results.remove(invalidatedPath);
+            }
+            
+            return invalidated;
+        }
+        
+        /**
+         * Drops the results of the file and of its dependents unless the file still 
+         * has the analyzed text.
+         * @param text the new text of the file, or null if it was deleted
+         * @return paths of invalidated files
+         */
+        Set<String> invalidate(String path, @Nullable String text) {
+            FileStamps oldStamps = stamps.get(path);
+            if (oldStamps != null && oldStamps.text.equals(text)) {
+                return Collections.emptySet();
+            }
+            
+            Set<String> invalidated = new HashSet<>(dependencyGraph.getAffectedFiles(path));
+            invalidated.add(path);
+            stamps.remove(path);
+            if (text == null) {
+                dependencyGraph.remove(path);
+            }
+            
+            for (String invalidatedPath : invalidated) {
+                results.remove(invalidatedPath);
+                resolutionInputs.remove(invalidatedPath);
+            }
+            
+            return invalidated;
+        }
+        
+    }
+    
 }
@@ -16,83 +16,155 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.diagnostics.netbeans.parser;
 
-import java.util.HashMap;
-import java.util.Map;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.Computable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.event.ChangeListener;
 import org.jetbrains.kotlin.resolve.AnalysisResultWithProvider;
+import org.jetbrains.kotlin.resolve.CancellableAnalysis;
 import org.jetbrains.kotlin.resolve.KotlinAnalyzer;
 import org.jetbrains.kotlin.utils.ProjectUtils;
 import org.jetbrains.kotlin.psi.KtFile;
 import org.netbeans.api.project.Project;
-import org.netbeans.modules.csl.spi.GsfUtilities;
 import org.netbeans.modules.parsing.api.Snapshot;
 import org.netbeans.modules.parsing.api.Task;
 import org.netbeans.modules.parsing.spi.Parser;
 import org.netbeans.modules.parsing.spi.Parser.Result;
 import org.netbeans.modules.parsing.spi.SourceModificationEvent;
+import org.openide.filesystems.FileObject;
+import org.openide.util.ChangeSupport;
 
 public class KotlinParser extends Parser {
 
-    private Snapshot snapshot;
-    private static KtFile fileToAnalyze;
+    // parsers which can be asked to reschedule their tasks
+    private static final Set<KotlinParser> PARSERS = 
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<KotlinParser, Boolean>()));
+    
+    private final ChangeSupport changeSupport = new ChangeSupport(this);
+
+    private volatile Snapshot snapshot;
+    private KtFile fileToAnalyze;
     private Project project;
-    private static final Map<String, AnalysisResultWithProvider> CACHE = new HashMap<>();
+    private AnalysisResultWithProvider analysisResult;
+    private final AtomicReference<ProgressIndicator> currentIndicator = new AtomicReference<>();
+    
+    public KotlinParser() {
+        PARSERS.add(this);
+    }
     
     @Override
     public void parse(Snapshot snapshot, Task task, SourceModificationEvent event) {
         this.snapshot = snapshot;
+        analysisResult = null;
         
-        project = ProjectUtils.getKotlinProjectForFileObject(snapshot.getSource().getFileObject());
+        FileObject file = snapshot.getSource().getFileObject();
+        project = ProjectUtils.getKotlinProjectForFileObject(file);
 
         if (project == null){
             fileToAnalyze = null;
+            KotlinSyntaxErrors.clear(file);
             return;
         }
         
-        fileToAnalyze = ProjectUtils.getKtFile(snapshot.getText().toString(),snapshot.getSource().getFileObject());
-        int caretOffset = GsfUtilities.getLastKnownCaretOffset(snapshot, event);
-        
-        if (caretOffset <= 0) {
-            CACHE.put(fileToAnalyze.getVirtualFile().getPath(), KotlinAnalysisProjectCache.INSTANCE.getAnalysisResult(project));
+        fileToAnalyze = ProjectUtils.getKtFile(snapshot.getText().toString(), file);
+        final KtFile ktFile = fileToAnalyze;
+        if (ktFile == null) {
+            KotlinSyntaxErrors.clear(file);
             return;
         }
         
-        CACHE.put(fileToAnalyze.getVirtualFile().getPath(), KotlinAnalyzer.analyzeFile(project, fileToAnalyze));
-    }
-
-    public static AnalysisResultWithProvider getAnalysisResult() {
-        return fileToAnalyze != null ? CACHE.get(fileToAnalyze.getVirtualFile().getPath()) : null;
+        KotlinSyntaxErrors.publish(file, KotlinSyntaxErrors.collect(ktFile));
+        
+        final Project kotlinProject = project;
+        
+        ProgressIndicator indicator = new EmptyProgressIndicator();
+        currentIndicator.set(indicator);
+        try {
+            analysisResult = CancellableAnalysis.run(indicator, 
+                    new Computable<AnalysisResultWithProvider>() {
+                @Override
+                public AnalysisResultWithProvider compute() {
+                    return KotlinAnalyzer.analyzeFile(kotlinProject, ktFile);
+                }
+            });
+            KotlinParserResultStore.INSTANCE.put(file, snapshot, ktFile, analysisResult);
+        } catch (ProcessCanceledException ex) {
+            analysisResult = null;
+        } finally {
+            currentIndicator.compareAndSet(indicator, null);
+        }
     }
     
+    @Override
+    public void cancel(CancelReason reason, SourceModificationEvent event) {
+        if (reason == CancelReason.SOURCE_MODIFICATION_EVENT) {
+            ProgressIndicator indicator = currentIndicator.get();
+            if (indicator != null) {
+                indicator.cancel();
+            }
+        }
+    }
+
     public static AnalysisResultWithProvider getAnalysisResult(KtFile ktFile) {
-        return CACHE.get(ktFile.getVirtualFile().getPath());
+        KotlinParserResultStore.Entry entry = KotlinParserResultStore.INSTANCE.get(ktFile);
+        return entry != null ? entry.getAnalysisResult() : null;
     }
     
-    public static KtFile getFile() {
-        return fileToAnalyze;
+    public static KtFile getFile(FileObject file) {
+        KotlinParserResultStore.Entry entry = KotlinParserResultStore.INSTANCE.get(file);
+        return entry != null ? entry.getKtFile() : null;
     }
     
     // for tests only
     public static void setAnalysisResult(KtFile ktFile, AnalysisResultWithProvider analysisResult) {
-        fileToAnalyze = ktFile;
-        CACHE.put(ktFile.getVirtualFile().getPath(), analysisResult);
+        FileObject file = KotlinParserResultStore.getFileObject(ktFile);
+        if (file != null) {
+            KotlinParserResultStore.INSTANCE.put(file, null, ktFile, analysisResult);
+        }
     }
     
     @Override
     public Result getResult(Task task) {
-        if (project != null && fileToAnalyze != null){
-            return new KotlinParserResult(snapshot, 
-                    CACHE.get(fileToAnalyze.getVirtualFile().getPath()), fileToAnalyze, project);
+        if (project != null && fileToAnalyze != null && analysisResult != null){
+            return new KotlinParserResult(snapshot, analysisResult, fileToAnalyze, project);
         }
         return null;
     }
 
+    /**
+     * Makes the parsing infrastructure invalidate the result of the file and run its 
+     * tasks again. Analysis and PSI of an unchanged file come from caches, so this is 
+     * cheap; it is used to publish results computed in the background.
+     */
+    public static void rescheduleTasks(FileObject file) {
+        List<KotlinParser> parsers;
+        synchronized (PARSERS) {
+            parsers = new ArrayList<>(PARSERS);
+        }
+        
+        for (KotlinParser parser : parsers) {
+            Snapshot parsed = parser.snapshot;
+            if (parsed != null && file.equals(parsed.getSource().getFileObject())) {
+                parser.changeSupport.fireChange();
+            }
+        }
+    }
+
     @Override
     public void addChangeListener(ChangeListener changeListener) {
+        changeSupport.addChangeListener(changeListener);
     }
 
     @Override
     public void removeChangeListener(ChangeListener changeListener) {
+        changeSupport.removeChangeListener(changeListener);
     }
 
     
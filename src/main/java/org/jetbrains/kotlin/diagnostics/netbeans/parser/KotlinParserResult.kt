@@ -16,9 +16,7 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.diagnostics.netbeans.parser
 
-import com.intellij.psi.PsiErrorElement
 import org.jetbrains.kotlin.diagnostics.Diagnostic
-import org.jetbrains.kotlin.resolve.AnalyzingUtils
 import org.jetbrains.kotlin.resolve.AnalysisResultWithProvider
 import org.jetbrains.kotlin.psi.KtFile
 import org.netbeans.api.project.Project
@@ -37,15 +35,12 @@ class KotlinParserResult(snapshot: Snapshot,
     override fun invalidate() {
     }
 
-    override fun getDiagnostics() = arrayListOf<Error>().apply {
-        addAll(
-                analysisResult.analysisResult.bindingContext.diagnostics.all()
-                        .filter { it.psiFile.virtualFile.path == file.path }
-                        .map { KotlinError(it, file) }
-        )
-        addAll(
-                AnalyzingUtils.getSyntaxErrorRanges(ktFile)
-                        .map { KotlinSyntaxError(it, file) }
-        )
-    }
+    /**
+     * Returns semantic diagnostics only, syntax errors are published to 
+     * [KotlinSyntaxErrors.LAYER] by [KotlinParser].
+     */
+    override fun getDiagnostics(): List<Error> = getSemanticErrors()
+
+    fun getSemanticErrors(): List<KotlinError> =
+            analysisResult.getDiagnostics(file.path).map { KotlinError(it, file) }
 }
\ No newline at end of file
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.diagnostics.netbeans.parser;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import javax.swing.text.JTextComponent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.resolve.AnalysisResultWithProvider;
+import org.jetbrains.kotlin.utils.ProjectUtils;
+import org.netbeans.api.editor.EditorRegistry;
+import org.netbeans.modules.parsing.api.Snapshot;
+import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
+
+/**
+ * Latest parse results of every open Kotlin file. A result is stored only if its snapshot 
+ * has the current text of the document, so a parse of an older snapshot which finishes 
+ * late never replaces a newer result. Entries are dropped when the last editor of the 
+ * file is closed.
+ * 
+ * Each stored result records the modification stamp of its document, which is increased
+ * by every edit. A result is current while the stamp of the document is unchanged.
+ */
+public class KotlinParserResultStore {
+
+    public static final KotlinParserResultStore INSTANCE = new KotlinParserResultStore();
+
+    private static final String MODIFICATION_STAMP = "kotlin-modification-stamp";
+    
+    private static final DocumentListener STAMP_UPDATER = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            getStamp(e.getDocument()).incrementAndGet();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            getStamp(e.getDocument()).incrementAndGet();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    };
+
+    // written under the lock of the store
+    private final ConcurrentMap<FileObject, Entry> results = new ConcurrentHashMap<>();
+
+    public static class Entry {
+
+        private final Snapshot snapshot;
+        private final Document document;
+        private final long stamp;
+        private final KtFile ktFile;
+        private final AnalysisResultWithProvider analysisResult;
+
+        Entry(Snapshot snapshot, Document document, long stamp, 
+                KtFile ktFile, AnalysisResultWithProvider analysisResult) {
+            this.snapshot = snapshot;
+            this.document = document;
+            this.stamp = stamp;
+            this.ktFile = ktFile;
+            this.analysisResult = analysisResult;
+        }
+
+        /**
+         * Returns the parsed snapshot, or null for results which were not parsed from one.
+         */
+        @Nullable
+        public Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        public KtFile getKtFile() {
+            return ktFile;
+        }
+
+        public AnalysisResultWithProvider getAnalysisResult() {
+            return analysisResult;
+        }
+
+        /**
+         * Returns true if the result was parsed from the current text of the document, 
+         * results stored without a snapshot are always current.
+         */
+        public boolean isCurrent() {
+            if (document == null) {
+                return true;
+            }
+            
+            final boolean[] current = new boolean[1];
+            document.render(new Runnable() {
+                @Override
+                public void run() {
+                    current[0] = getStamp(document).get() == stamp;
+                }
+            });
+            
+            return current[0];
+        }
+
+    }
+
+    private KotlinParserResultStore() {
+        EditorRegistry.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (EditorRegistry.COMPONENT_REMOVED_PROPERTY.equals(evt.getPropertyName())
+                        && evt.getOldValue() instanceof JTextComponent) {
+                    fileClosed((JTextComponent) evt.getOldValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * Stores the result if {@code snapshot} still has the text of its document. The check 
+     * and the update are atomic, so a result of an older snapshot can't replace a result 
+     * of a newer one.
+     * @param snapshot the parsed snapshot, or null to store the result unconditionally
+     * @return true if the result was stored
+     */
+    public synchronized boolean put(@NotNull FileObject file, @Nullable Snapshot snapshot,
+            @NotNull KtFile ktFile, @NotNull AnalysisResultWithProvider analysisResult) {
+        Document document = snapshot != null ? snapshot.getSource().getDocument(false) : null;
+        long stamp = 0;
+        if (document != null) {
+            stamp = getCurrentStamp(snapshot, document);
+            if (stamp < 0) {
+                return false;
+            }
+        }
+        
+        results.put(file, new Entry(snapshot, document, stamp, ktFile, analysisResult));
+        return true;
+    }
+
+    @Nullable
+    public Entry get(@Nullable FileObject file) {
+        return file != null ? results.get(file) : null;
+    }
+
+    @Nullable
+    public Entry get(@NotNull KtFile ktFile) {
+        return get(getFileObject(ktFile));
+    }
+
+    /**
+     * Returns the modification stamp of the document if the snapshot has its current 
+     * text, or -1 otherwise. The listener which updates the stamp is added to the document 
+     * the first time, so the text is compared once per stored result, later checks only 
+     * compare the stamps.
+     */
+    private static long getCurrentStamp(final Snapshot snapshot, final Document document) {
+        final long[] stamp = {-1};
+        document.render(new Runnable() {
+            @Override
+            public void run() {
+                if (getStamp(document) == null) {
+                    document.putProperty(MODIFICATION_STAMP, new AtomicLong());
+                    document.addDocumentListener(STAMP_UPDATER);
+                }
+                
+                if (hasText(document, snapshot.getText())) {
+                    stamp[0] = getStamp(document).get();
+                }
+            }
+        });
+        
+        return stamp[0];
+    }
+    
+    private static AtomicLong getStamp(Document document) {
+        return (AtomicLong) document.getProperty(MODIFICATION_STAMP);
+    }
+    
+    /**
+     * Compares the text of the document chunk by chunk, without copying it. 
+     */
+    private static boolean hasText(Document document, CharSequence text) {
+        if (document.getLength() != text.length()) {
+            return false;
+        }
+        
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int offset = 0;
+        try {
+            while (offset < text.length()) {
+                document.getText(offset, text.length() - offset, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] != text.charAt(offset + i)) {
+                        return false;
+                    }
+                }
+                offset += segment.count;
+            }
+        } catch (BadLocationException ex) {
+            return false;
+        }
+        
+        return true;
+    }
+
+    public synchronized void remove(@NotNull FileObject file) {
+        results.remove(file);
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    private void fileClosed(JTextComponent component) {
+        FileObject file = ProjectUtils.getFileObjectForDocument(component.getDocument());
+        if (file == null) {
+            return;
+        }
+
+        for (JTextComponent openComponent : EditorRegistry.componentList()) {
+            if (file.equals(ProjectUtils.getFileObjectForDocument(openComponent.getDocument()))) {
+                return;
+            }
+        }
+
+        remove(file);
+    }
+
+    @Nullable
+    static FileObject getFileObject(@NotNull KtFile ktFile) {
+        if (ktFile.getVirtualFile() == null) {
+            return null;
+        }
+
+        return FileUtil.toFileObject(FileUtil.normalizeFile(new File(ktFile.getVirtualFile().getPath())));
+    }
+
+}
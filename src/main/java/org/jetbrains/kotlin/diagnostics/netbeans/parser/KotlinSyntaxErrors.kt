@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.diagnostics.netbeans.parser
+
+import com.intellij.psi.PsiErrorElement
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.AnalyzingUtils
+import org.netbeans.spi.editor.hints.ErrorDescriptionFactory
+import org.netbeans.spi.editor.hints.HintsController
+import org.netbeans.spi.editor.hints.Severity
+import org.openide.filesystems.FileObject
+
+/**
+ * First phase of error reporting. Syntax errors are known as soon as the PSI is built,
+ * so they are published to their own hints layer before semantic analysis starts and
+ * stay visible while the analysis runs or when it is cancelled by the next edit.
+ * Semantic diagnostics are reported later by [org.jetbrains.kotlin.hints.KotlinHintsProvider].
+ */
+object KotlinSyntaxErrors {
+
+    const val LAYER = "kotlin-syntax-errors"
+
+    @JvmStatic
+    fun collect(ktFile: KtFile): List<PsiErrorElement> = AnalyzingUtils.getSyntaxErrorRanges(ktFile)
+
+    @JvmStatic
+    fun publish(file: FileObject, syntaxErrors: List<PsiErrorElement>) {
+        val errors = syntaxErrors.map {
+            ErrorDescriptionFactory.createErrorDescription(Severity.ERROR, it.errorDescription,
+                    file, it.textRange.startOffset, it.textRange.endOffset)
+        }
+        HintsController.setErrors(file, LAYER, errors)
+    }
+
+    /**
+     * Removes the published errors, used when the file can't be parsed anymore.
+     */
+    @JvmStatic
+    fun clear(file: FileObject?) {
+        if (file != null) HintsController.setErrors(file, LAYER, emptyList())
+    }
+}
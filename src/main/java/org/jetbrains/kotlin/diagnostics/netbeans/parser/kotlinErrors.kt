@@ -22,7 +22,6 @@ import org.jetbrains.kotlin.diagnostics.rendering.DefaultErrorMessages
 import org.netbeans.modules.csl.api.Error.Badging
 import org.netbeans.modules.csl.api.Severity
 import org.openide.filesystems.FileObject
-import com.intellij.psi.PsiErrorElement
 import org.jetbrains.kotlin.diagnostics.Severity as KotlinSeverity
 
 class KotlinError(val diagnostic: Diagnostic, val fileObject: FileObject) : Badging {
@@ -57,25 +56,3 @@ class KotlinError(val diagnostic: Diagnostic, val fileObject: FileObject) : Badg
 
     override fun getParameters() = null
 }
-
-class KotlinSyntaxError(val psiError: PsiErrorElement, val fileObject: FileObject) : Badging {
-    override fun showExplorerBadge() = true
-
-    override fun getDisplayName() = psiError.errorDescription
-
-    override fun getDescription() = ""
-
-    override fun getKey() = ""
-
-    override fun getFile() = fileObject
-
-    override fun getStartPosition() = psiError.textRange.startOffset
-
-    override fun getEndPosition() = psiError.textRange.endOffset
-
-    override fun isLineError() = false
-
-    override fun getSeverity() = Severity.ERROR
-
-    override fun getParameters() = null
-}
\ No newline at end of file
@@ -21,7 +21,6 @@ import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.util.PsiTreeUtil;
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -29,11 +28,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import org.jetbrains.kotlin.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.filesystem.lightclasses.LightClassFile;
 import org.jetbrains.kotlin.model.KotlinEnvironment;
+import org.jetbrains.kotlin.projectsextensions.KotlinProjectHelper;
 import org.jetbrains.kotlin.utils.ProjectUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -48,13 +46,21 @@ import org.jetbrains.kotlin.psi.KtProperty;
 import org.jetbrains.kotlin.psi.KtSecondaryConstructor;
 import org.jetbrains.kotlin.psi.KtVisitorVoid;
 import org.openide.filesystems.FileObject;
-import org.openide.filesystems.FileUtil;
 
+/**
+ * Keeps the mapping from light class paths, relative to the light classes directory, 
+ * to the source files declaring them. The mapping of the whole project is computed once,
+ * afterwards only files which are regenerated are updated.
+ */
 public class KotlinLightClassManager {
     
     private final org.netbeans.api.project.Project project;
     
-    private final ConcurrentMap<File, Set<FileObject>> sourceFiles = new ConcurrentHashMap<>();
+    // guarded by this
+    private final Map<FileObject, List<String>> lightClassesBySource = new HashMap<>();
+    private final Map<String, Set<FileObject>> sourceFiles = new HashMap<>();
+    private final Map<String, byte[]> abiFingerprints = new HashMap<>();
+    private boolean initialized = false;
     
     @NotNull
     public static KotlinLightClassManager getInstance(@NotNull org.netbeans.api.project.Project project){
@@ -66,31 +72,102 @@ public class KotlinLightClassManager {
         this.project = project;
     }
     
-    public void computeLightClassesSources(){
-        Map<File, Set<FileObject>> newSourceFilesMap = new HashMap<>();
+    public synchronized void computeLightClassesSources(){
+        lightClassesBySource.clear();
+        sourceFiles.clear();
         for (FileObject sourceFile : KotlinPsiManager.INSTANCE.getFilesByProject(project)){
-            List<String> lightClassesPaths = getLightClassesPaths(sourceFile);
-            
-            for (String path : lightClassesPaths){
-                LightClassFile lightClassFile = new LightClassFile(project, path);
-                Set<FileObject> newSourceFiles = newSourceFilesMap.get(lightClassFile.asFile());
-                if (newSourceFiles == null){
-                    newSourceFiles = new HashSet<>();
-                    newSourceFilesMap.put(lightClassFile.asFile(), newSourceFiles);
+            putSource(sourceFile, getLightClassesPaths(sourceFile));
+        }
+        initialized = true;
+    }
+    
+    /**
+     * Recomputes the light classes declared in {@code ktFile}, the current PSI of 
+     * {@code sourceFile}. Mapping of other files is not touched.
+     * @return paths of the light classes declared in the file
+     */
+    @NotNull
+    public synchronized List<String> updateLightClassesSources(@NotNull FileObject sourceFile, @NotNull KtFile ktFile) {
+        ensureInitialized();
+        
+        List<String> paths = getLightClassesPaths(ktFile);
+        removeSource(sourceFile);
+        putSource(sourceFile, paths);
+        
+        return paths;
+    }
+    
+    /**
+     * Returns the light classes paths of {@code sourceFile} as they were last computed.
+     */
+    @NotNull
+    public synchronized List<String> getGeneratedPaths(@NotNull FileObject sourceFile) {
+        List<String> paths = lightClassesBySource.get(sourceFile);
+        return paths != null ? new ArrayList<>(paths) : new ArrayList<String>();
+    }
+    
+    @Nullable
+    public synchronized byte[] getAbiFingerprint(@NotNull String path) {
+        return abiFingerprints.get(path);
+    }
+    
+    public synchronized void setAbiFingerprint(@NotNull String path, @NotNull byte[] fingerprint) {
+        abiFingerprints.put(path, fingerprint);
+    }
+    
+    public synchronized void removeAbiFingerprint(@NotNull String path) {
+        abiFingerprints.remove(path);
+    }
+    
+    public synchronized void removeSource(@NotNull FileObject sourceFile) {
+        List<String> paths = lightClassesBySource.remove(sourceFile);
+        if (paths == null) {
+            return;
+        }
+        
+        for (String path : paths) {
+            Set<FileObject> sources = sourceFiles.get(path);
+            if (sources != null) {
+                sources.remove(sourceFile);
+                if (sources.isEmpty()) {
+                    sourceFiles.remove(path);
                 }
-                newSourceFiles.add(sourceFile);
             }
         }
-        
-        sourceFiles.clear();
-        sourceFiles.putAll(newSourceFilesMap);
+    }
+    
+    private void putSource(FileObject sourceFile, List<String> paths) {
+        lightClassesBySource.put(sourceFile, paths);
+        for (String path : paths){
+            Set<FileObject> sources = sourceFiles.get(path);
+            if (sources == null){
+                sources = new HashSet<>();
+                sourceFiles.put(path, sources);
+            }
+            sources.add(sourceFile);
+        }
+    }
+    
+    private void ensureInitialized() {
+        if (!initialized) {
+            computeLightClassesSources();
+        }
     }
 
     @NotNull
     public List<String> getLightClassesPaths(FileObject sourceFile) {
+        KtFile ktFile = ProjectUtils.getKtFile(sourceFile);
+        if (ktFile == null) {
+            return Collections.emptyList();
+        }
+        
+        return getLightClassesPaths(ktFile);
+    }
+    
+    @NotNull
+    public List<String> getLightClassesPaths(@NotNull KtFile ktFile) {
         List<String> lightClasses = new ArrayList<>();
         
-        KtFile ktFile = ProjectUtils.getKtFile(sourceFile);
         for (KtClassOrObject classOrObject : findLightClasses(ktFile)){
             String internalName = getInternalName(classOrObject);
             if (internalName != null){
@@ -146,48 +223,48 @@ public class KotlinLightClassManager {
         return builder.toString();
     }
 
-    public void updateLightClasses(@NotNull Set<FileObject> affectedFiles) {
-        for (Map.Entry<File, Set<FileObject>> entry : sourceFiles.entrySet()){
-            FileObject lightClassFileObject = FileUtil.toFileObject(entry.getKey());
-            if (lightClassFileObject == null){
+    public synchronized void updateLightClasses(@NotNull Set<FileObject> affectedFiles) {
+        ensureInitialized();
+        FileObject lightClassesDirectory = KotlinProjectHelper.INSTANCE.getLightClassesDirectory(project);
+        if (lightClassesDirectory == null) {
+            return;
+        }
+        
+        for (FileObject sourceFile : affectedFiles) {
+            List<String> paths = lightClassesBySource.get(sourceFile);
+            if (paths == null) {
                 continue;
             }
             
-            LightClassFile lightClassFile = new LightClassFile(lightClassFileObject);
-            
-            for (FileObject sourceFile : entry.getValue()){
-                if (affectedFiles.contains(sourceFile)){
-                    lightClassFile.refreshFile();
-                    break;
+            for (String path : paths) {
+                FileObject lightClassFileObject = lightClassesDirectory.getFileObject(path);
+                if (lightClassFileObject != null){
+                    new LightClassFile(lightClassFileObject).refreshFile();
                 }
             }
         }
     }
     
-    public List<KtFile> getSourceFiles(@NotNull File file){
-        if (sourceFiles.isEmpty()){
-            computeLightClassesSources();
+    /**
+     * Returns the source files which declare the light class with the given path.
+     */
+    @NotNull
+    public synchronized List<FileObject> getSourceFiles(@NotNull String path){
+        ensureInitialized();
+        
+        Set<FileObject> sources = sourceFiles.get(path);
+        if (sources == null) {
+            return Collections.emptyList();
         }
         
-        return getSourceKtFiles(file);
-    }
-
-    @NotNull
-    private List<KtFile> getSourceKtFiles(File file) {
-        Set<FileObject> sourceIOFiles = sourceFiles.get(file);
-        if (sourceIOFiles != null){
-            List<KtFile> ktSourceFiles = Lists.newArrayList();
-            for (FileObject sourceFile : sourceIOFiles){
-                KtFile ktFile = ProjectUtils.getKtFile(sourceFile);
-                if (ktFile != null){
-                    ktSourceFiles.add(ktFile);
-                }
+        List<FileObject> validSources = Lists.newArrayList();
+        for (FileObject sourceFile : sources) {
+            if (sourceFile.isValid()) {
+                validSources.add(sourceFile);
             }
-            
-            return ktSourceFiles;
         }
         
-        return Collections.<KtFile>emptyList();
+        return validSources;
     }
     
     @Nullable
@@ -16,31 +16,39 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.filesystem.lightclasses;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import org.jetbrains.kotlin.backend.common.output.OutputFile;
 import org.jetbrains.kotlin.filesystem.KotlinLightClassManager;
 import org.jetbrains.kotlin.model.KotlinEnvironment;
+import org.jetbrains.kotlin.projectsextensions.KotlinProjectHelper;
 import org.jetbrains.kotlin.resolve.KotlinAnalyzer;
 import org.jetbrains.kotlin.utils.ProjectUtils;
 import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.codegen.ClassBuilderFactory;
 import org.jetbrains.kotlin.codegen.CompilationErrorHandler;
 import org.jetbrains.kotlin.codegen.KotlinCodegenFacade;
 import org.jetbrains.kotlin.codegen.state.GenerationState;
-import org.jetbrains.kotlin.descriptors.PackageFragmentDescriptor;
 import org.jetbrains.kotlin.log.KotlinLogger;
+import org.jetbrains.kotlin.name.FqName;
 import org.jetbrains.kotlin.psi.KtClassOrObject;
 import org.jetbrains.kotlin.psi.KtFile;
 import org.jetbrains.kotlin.psi.KtScript;
 import org.jetbrains.kotlin.resolve.BindingContext;
 import org.netbeans.api.project.Project;
+import org.netbeans.modules.parsing.api.indexing.IndexingManager;
 import org.openide.filesystems.FileObject;
+import org.openide.filesystems.FileUtil;
 
 public class KotlinLightClassGeneration {
 
@@ -50,12 +58,33 @@ public class KotlinLightClassGeneration {
     }
 
     public void updateLightClasses(Project kotlinProject, Set<FileObject> affectedFiles) {
-        KotlinLightClassManager.getInstance(kotlinProject).computeLightClassesSources();
         KotlinLightClassManager.getInstance(kotlinProject).updateLightClasses(affectedFiles);
     }
 
+    /**
+     * Generates light classes of the given files only. Other files of the analysis 
+     * are needed for resolution but their classes are not generated. Files which were 
+     * not analyzed are skipped, returns null if none of the files was analyzed.
+     */
     public GenerationState buildLightClasses(AnalysisResult analysisResult, Project project,
-            List<KtFile> ktFiles, final String requestedClassName) {
+            List<KtFile> ktFiles) {
+        return buildLightClasses(analysisResult, project, ktFiles, new LightClassBuilderFactory());
+    }
+    
+    public GenerationState buildLightClasses(AnalysisResult analysisResult, Project project,
+            List<KtFile> ktFiles, ClassBuilderFactory builderFactory) {
+        final List<KtFile> analyzedFiles = new ArrayList<>();
+        for (KtFile ktFile : ktFiles) {
+            if (analysisResult.getBindingContext().get(BindingContext.FILE_TO_PACKAGE_FRAGMENT, ktFile) != null) {
+                analyzedFiles.add(ktFile);
+            }
+        }
+        
+        if (analyzedFiles.isEmpty()) {
+            return null;
+        }
+        
+        final Set<KtFile> filesToGenerate = new HashSet<>(analyzedFiles);
 
         GenerationState.GenerateClassFilter generateDeclaredClassFilter
                 = new GenerationState.GenerateClassFilter() {
@@ -66,16 +95,12 @@ public class KotlinLightClassGeneration {
 
             @Override
             public boolean shouldGenerateClass(KtClassOrObject classOrObject) {
-//                String internalName = KotlinLightClassManager.getInternalName(classOrObject);
-//                return checkByInternalName(internalName, requestedClassName);
-                return true;
+                return filesToGenerate.contains(classOrObject.getContainingKtFile());
             }
 
             @Override
             public boolean shouldGeneratePackagePart(KtFile ktFile) {
-//                String internalName = FileClasses.getFileClassInternalName(NoResolveFileClassesProvider.INSTANCE, ktFile);
-//                return checkByInternalName(internalName, requestedClassName);
-                return true;
+                return filesToGenerate.contains(ktFile);
             }
 
             @Override
@@ -86,21 +111,14 @@ public class KotlinLightClassGeneration {
 
         GenerationState state = new GenerationState(
                 KotlinEnvironment.getEnvironment(project).getProject(),
-                new LightClassBuilderFactory(),
+                builderFactory,
                 analysisResult.getModuleDescriptor(),
                 analysisResult.getBindingContext(),
-                ktFiles,
+                analyzedFiles,
                 true,
                 true,
                 generateDeclaredClassFilter
         );
-        
-        for (KtFile ktFile : ktFiles) {
-            PackageFragmentDescriptor fragment = state.getBindingContext().get(BindingContext.FILE_TO_PACKAGE_FRAGMENT, ktFile);
-            if (fragment == null) {
-                return null;
-            }
-        }
 
         KotlinCodegenFacade.compileCorrectFiles(state, new CompilationErrorHandler() {
             @Override
@@ -112,133 +130,152 @@ public class KotlinLightClassGeneration {
         return state;
     }
 
-    private boolean checkByInternalName(String internalName, String requestedClassFileName) {
-        if (internalName == null) {
-            return false;
-        }
-        String classFileName = getLastSegment(internalName);
-        String requestedInternalName = requestedClassFileName.substring(0, requestedClassFileName.length() - ".class".length());
-        
-        if (requestedInternalName.startsWith(classFileName)) {
-            if (requestedInternalName.length() == classFileName.length()) {
-                return true;
-            }
-            
-            if (requestedInternalName.charAt(classFileName.length()) == '$') {
-                return true;
-            }
+    public void generate(FileObject file, Project project) {
+        KtFile ktFile = ProjectUtils.getKtFile(file);
+        if (project == null || ktFile == null) {
+            return;
         }
         
-        return false;
-    }
-    
-    private String getLastSegment(String path) {
-        String[] parts = path.split("/");
-        
-        return parts[parts.length - 1];
+        AnalysisResult analysisResult = KotlinAnalyzer.analyzeFile(project, ktFile).getAnalysisResult();
+        generate(file, ktFile, project, analysisResult);
     }
 
-    public void generate(FileObject file, Project project) {
+    /**
+     * Regenerates the light classes declared in {@code ktFile}, the analyzed PSI of 
+     * {@code file}. Light classes of other files are neither generated nor rewritten.
+     */
+    public void generate(FileObject file, KtFile ktFile, Project project, AnalysisResult analysisResult) {
+        generate(Collections.singletonMap(file, ktFile), project, analysisResult);
+    }
+    
+    /**
+     * Regenerates the light classes of several files analyzed together, {@code files} maps 
+     * every source file to its analyzed PSI. Codegen runs once per package of the files, 
+     * and the outputs of each run are written in a single pass.
+     */
+    public void generate(Map<FileObject, KtFile> files, Project project, AnalysisResult analysisResult) {
         if (project == null) {
             return;
         }
         
         KotlinLightClassManager manager = KotlinLightClassManager.getInstance(project);
-        manager.computeLightClassesSources();
-        List<String> lightClassesPaths = manager.getLightClassesPaths(file);
-
-        for (String path : lightClassesPaths) {
-            File lightClass = new File(ProjectUtils.getKotlinProjectLightClassesPath(project) + "/" + path);
-            if (!lightClass.exists()){
-                lightClass.mkdirs();
-            }    
+        FileObject lightClassesDirectory = KotlinProjectHelper.INSTANCE.getLightClassesDirectory(project);
+        if (lightClassesDirectory == null) {
+            return;
+        }
+        
+        Map<FqName, List<KtFile>> filesByPackage = new LinkedHashMap<>();
+        Map<KtFile, Set<String>> lightClassesPaths = new HashMap<>();
+        List<String> stalePaths = new ArrayList<>();
+        List<URL> changedClasses = new ArrayList<>();
+        for (Map.Entry<FileObject, KtFile> entry : files.entrySet()) {
+            KtFile ktFile = entry.getValue();
+            List<String> previousPaths = manager.getGeneratedPaths(entry.getKey());
+            Set<String> paths = new HashSet<>(manager.updateLightClassesSources(entry.getKey(), ktFile));
+            previousPaths.removeAll(paths);
+            stalePaths.addAll(previousPaths);
+            if (paths.isEmpty()) {
+                continue;
+            }
             
-            List<KtFile> ktFiles = manager.getSourceFiles(lightClass);
-            String[] pathParts = path.split("/");
-            String className = pathParts[pathParts.length-1];
-            if (!ktFiles.isEmpty()) {
-                AnalysisResult analysisResult
-                        = KotlinAnalyzer.analyzeFiles(project, ktFiles).getAnalysisResult();
-                GenerationState state = KotlinLightClassGeneration.INSTANCE.
-                        buildLightClasses(analysisResult, project, ktFiles, className);
-                if (state == null) {
-                    return;
-                }
-                for (int i = 0; i < state.getFactory().asList().size(); i++) {
-                    
-                    byte[] lightClassText = state.getFactory().asList().get(i).asByteArray();
-                    
-                    if (lightClass.getAbsolutePath().replace('\\', '/').contains(
-                            state.getFactory().asList().get(i).getRelativePath())) {
-                        OutputStream stream = null;
-                        try {
-                            stream = new BufferedOutputStream(new FileOutputStream(lightClass));
-                            stream.write(lightClassText);
-                            stream.flush();
-                        } catch (IOException ex) {
-                            KotlinLogger.INSTANCE.logException("", ex);
-                        } finally {
-                            if (stream != null) {
-                                try {
-                                    stream.close();
-                                } catch (IOException ex) {
-                                    KotlinLogger.INSTANCE.logException("", ex);
-                                }
-                            }
-                        }
+            lightClassesPaths.put(ktFile, paths);
+            List<KtFile> packageFiles = filesByPackage.get(ktFile.getPackageFqName());
+            if (packageFiles == null) {
+                packageFiles = new ArrayList<>();
+                filesByPackage.put(ktFile.getPackageFqName(), packageFiles);
+            }
+            packageFiles.add(ktFile);
+        }
+        
+        for (List<KtFile> packageFiles : filesByPackage.values()) {
+            GenerationState state = buildLightClasses(analysisResult, project, packageFiles);
+            if (state == null) {
+                continue;
+            }
+            
+            Map<String, OutputFile> outputs = new HashMap<>();
+            for (OutputFile outputFile : state.getFactory().asList()) {
+                outputs.put(outputFile.getRelativePath(), outputFile);
+            }
+            
+            for (KtFile ktFile : packageFiles) {
+                for (String path : lightClassesPaths.get(ktFile)) {
+                    OutputFile outputFile = outputs.get(path);
+                    if (outputFile != null) {
+                        writeIfAbiChanged(manager, lightClassesDirectory, path, outputFile.asByteArray(), 
+                                changedClasses);
                     }
                 }
             }
         }
+        
+        removeStaleLightClasses(manager, lightClassesDirectory, stalePaths, changedClasses);
+        
+        if (!changedClasses.isEmpty()) {
+            // the indexer doesn't watch the memory filesystem of light classes
+            IndexingManager.getDefault().refreshIndex(lightClassesDirectory.toURL(), changedClasses);
+        }
     }
-
-    public void generate(FileObject file, Project project, AnalysisResult analysisResult) {
-        if (project == null) {
+    
+    /**
+     * Writes the light class only if it doesn't exist yet or its ABI fingerprint has changed. 
+     * Every write makes the Java infrastructure reparse the sources which depend on 
+     * the class, and body-only edits of Kotlin code don't change what Java sees.
+     */
+    private void writeIfAbiChanged(KotlinLightClassManager manager, FileObject lightClassesDirectory, 
+            String path, byte[] bytes, List<URL> changedClasses) {
+        byte[] fingerprint = LightClassAbiFingerprint.compute(bytes);
+        if (lightClassesDirectory.getFileObject(path) != null 
+                && Arrays.equals(fingerprint, manager.getAbiFingerprint(path))) {
             return;
         }
         
-        KotlinLightClassManager manager = KotlinLightClassManager.getInstance(project);
-        manager.computeLightClassesSources();
-        List<String> lightClassesPaths = manager.getLightClassesPaths(file);
-
-        for (String path : lightClassesPaths) {
-            File lightClass = new File(ProjectUtils.getKotlinProjectLightClassesPath(project) + ProjectUtils.FILE_SEPARATOR + path);
-            if (!lightClass.exists()){
-                lightClass.mkdirs();
-            }    
+        FileObject lightClass = writeLightClass(lightClassesDirectory, path, bytes);
+        if (lightClass != null) {
+            manager.setAbiFingerprint(path, fingerprint);
+            changedClasses.add(lightClass.toURL());
+        }
+    }
+    
+    private void removeStaleLightClasses(KotlinLightClassManager manager, FileObject lightClassesDirectory, 
+            List<String> paths, List<URL> changedClasses) {
+        for (String path : paths) {
+            if (!manager.getSourceFiles(path).isEmpty()) {
+                continue;
+            }
             
-            List<KtFile> ktFiles = manager.getSourceFiles(lightClass);
-            String[] pathParts = path.split(Pattern.quote(ProjectUtils.FILE_SEPARATOR));
-            String className = pathParts[pathParts.length-1];
-            if (!ktFiles.isEmpty()) {
-                GenerationState state = KotlinLightClassGeneration.INSTANCE.
-                        buildLightClasses(analysisResult, project, ktFiles, className);
-                if (state == null) {
-                    return;
-                }
-                for (int i = 0; i < state.getFactory().asList().size(); i++) {
-                    
-                    byte[] lightClassText = state.getFactory().asList().get(i).asByteArray();
-                    
-                    if (lightClass.getAbsolutePath().replace('\\', '/').contains(
-                            state.getFactory().asList().get(i).getRelativePath())) {
-                        OutputStream stream = null;
-                        try {
-                            stream = new BufferedOutputStream(new FileOutputStream(lightClass));
-                            stream.write(lightClassText);
-                            stream.flush();
-                        } catch (IOException ex) {
-                            KotlinLogger.INSTANCE.logException("", ex);
-                        } finally {
-                            if (stream != null) {
-                                try {
-                                    stream.close();
-                                } catch (IOException ex) {
-                                    KotlinLogger.INSTANCE.logException("", ex);
-                                }
-                            }
-                        }
-                    }
+            manager.removeAbiFingerprint(path);
+            FileObject lightClass = lightClassesDirectory.getFileObject(path);
+            if (lightClass == null) {
+                continue;
+            }
+            
+            try {
+                changedClasses.add(lightClass.toURL());
+                lightClass.delete();
+            } catch (IOException ex) {
+                KotlinLogger.INSTANCE.logException("", ex);
+            }
+        }
+    }
+    
+    private FileObject writeLightClass(FileObject lightClassesDirectory, String path, byte[] bytes) {
+        OutputStream stream = null;
+        try {
+            FileObject lightClass = FileUtil.createData(lightClassesDirectory, path);
+            stream = lightClass.getOutputStream();
+            stream.write(bytes);
+            stream.flush();
+            return lightClass;
+        } catch (IOException ex) {
+            KotlinLogger.INSTANCE.logException("", ex);
+            return null;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ex) {
+                    KotlinLogger.INSTANCE.logException("", ex);
                 }
             }
         }
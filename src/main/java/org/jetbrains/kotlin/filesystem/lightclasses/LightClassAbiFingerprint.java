@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.filesystem.lightclasses;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.org.objectweb.asm.AnnotationVisitor;
+import org.jetbrains.org.objectweb.asm.ClassReader;
+import org.jetbrains.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.org.objectweb.asm.FieldVisitor;
+import org.jetbrains.org.objectweb.asm.MethodVisitor;
+import org.jetbrains.org.objectweb.asm.Opcodes;
+
+/**
+ * Digest of the part of a class file which Java sources can observe: the class header,
+ * non-private fields and methods with their signatures, and annotations. Method bodies,
+ * debug information, private members and Kotlin metadata do not affect it, so a body-only
+ * edit of a Kotlin file gives the same fingerprint.
+ */
+public final class LightClassAbiFingerprint {
+
+    private static final String METADATA_DESC = "Lkotlin/Metadata;";
+
+    private LightClassAbiFingerprint() {}
+
+    @NotNull
+    public static byte[] compute(@NotNull byte[] classBytes) {
+        List<String> lines = new ArrayList<>();
+        new ClassReader(classBytes).accept(new AbiCollector(lines),
+                ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        // member order in the class file is not observable from Java
+        Collections.sort(lines);
+
+        MessageDigest digest = createDigest();
+        for (String line : lines) {
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+
+        return digest.digest();
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static boolean isPrivate(int access) {
+        return (access & Opcodes.ACC_PRIVATE) != 0;
+    }
+
+    private static class AbiCollector extends ClassVisitor {
+
+        private final List<String> lines;
+
+        AbiCollector(List<String> lines) {
+            super(Opcodes.ASM5);
+            this.lines = lines;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature,
+                String superName, String[] interfaces) {
+            lines.add("class " + access + " " + name + " " + signature + " " + superName
+                    + " " + Arrays.toString(interfaces));
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            if (METADATA_DESC.equals(desc)) {
+                return null;
+            }
+
+            return new AnnotationCollector(lines, "class @" + desc);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            lines.add("inner " + access + " " + name + " " + outerName + " " + innerName);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            if (isPrivate(access)) {
+                return null;
+            }
+
+            final String field = "field " + access + " " + name + " " + desc + " " + signature;
+            lines.add(field + " = " + value);
+
+            return new FieldVisitor(Opcodes.ASM5) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                    return new AnnotationCollector(lines, field + " @" + desc);
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                String[] exceptions) {
+            if (isPrivate(access)) {
+                return null;
+            }
+
+            final String method = "method " + access + " " + name + " " + desc + " " + signature;
+            lines.add(method + " throws " + Arrays.toString(exceptions));
+
+            return new MethodVisitor(Opcodes.ASM5) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                    return new AnnotationCollector(lines, method + " @" + desc);
+                }
+
+                @Override
+                public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
+                    return new AnnotationCollector(lines, method + " #" + parameter + " @" + desc);
+                }
+
+                @Override
+                public AnnotationVisitor visitAnnotationDefault() {
+                    return new AnnotationCollector(lines, method + " default");
+                }
+            };
+        }
+    }
+
+    private static class AnnotationCollector extends AnnotationVisitor {
+
+        private final List<String> lines;
+        private final String prefix;
+
+        AnnotationCollector(List<String> lines, String prefix) {
+            super(Opcodes.ASM5);
+            this.lines = lines;
+            this.prefix = prefix;
+            lines.add(prefix);
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            String text = value.getClass().isArray() ? arrayToString(value) : String.valueOf(value);
+            lines.add(prefix + " " + name + " = " + text);
+        }
+
+        @Override
+        public void visitEnum(String name, String desc, String value) {
+            lines.add(prefix + " " + name + " = " + desc + "." + value);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String desc) {
+            return new AnnotationCollector(lines, prefix + " " + name + " @" + desc);
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            // array elements keep their order, so they are numbered
+            return new AnnotationCollector(lines, prefix + " " + name + "[]") {
+                private int index = 0;
+
+                @Override
+                public void visit(String elementName, Object value) {
+                    super.visit(String.valueOf(index++), value);
+                }
+
+                @Override
+                public void visitEnum(String elementName, String desc, String value) {
+                    super.visitEnum(String.valueOf(index++), desc, value);
+                }
+
+                @Override
+                public AnnotationVisitor visitAnnotation(String elementName, String desc) {
+                    return super.visitAnnotation(String.valueOf(index++), desc);
+                }
+            };
+        }
+
+        private static String arrayToString(Object array) {
+            if (array instanceof byte[]) return Arrays.toString((byte[]) array);
+            if (array instanceof boolean[]) return Arrays.toString((boolean[]) array);
+            if (array instanceof short[]) return Arrays.toString((short[]) array);
+            if (array instanceof char[]) return Arrays.toString((char[]) array);
+            if (array instanceof int[]) return Arrays.toString((int[]) array);
+            if (array instanceof long[]) return Arrays.toString((long[]) array);
+            if (array instanceof float[]) return Arrays.toString((float[]) array);
+            if (array instanceof double[]) return Arrays.toString((double[]) array);
+
+            return Arrays.deepToString((Object[]) array);
+        }
+    }
+
+}
@@ -29,15 +29,38 @@ import org.jetbrains.kotlin.codegen.ClassBuilder;
 import org.jetbrains.kotlin.codegen.ClassBuilderFactory;
 import org.jetbrains.kotlin.codegen.ClassBuilderMode;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
+import org.jetbrains.org.objectweb.asm.AnnotationVisitor;
+import org.jetbrains.org.objectweb.asm.Attribute;
 import org.jetbrains.org.objectweb.asm.ClassWriter;
 import org.jetbrains.org.objectweb.asm.FieldVisitor;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
+import org.jetbrains.org.objectweb.asm.Opcodes;
+import org.jetbrains.org.objectweb.asm.Type;
+import org.jetbrains.org.objectweb.asm.TypePath;
 
 import com.intellij.openapi.util.Key;
 import com.intellij.psi.PsiElement;
 
+/**
+ * Builds light classes for the Java infrastructure. By default only signatures are kept:
+ * method code is replaced with {@code throw null}, so no frames or stack sizes are 
+ * computed and no classes are loaded to find common super types.
+ */
 public class LightClassBuilderFactory implements ClassBuilderFactory {
     public static final Key<Set<Pair<String, String>>> JVM_SIGNATURE = Key.create("JVM_SIGNATURE");
+    
+    private final boolean signaturesOnly;
+    
+    public LightClassBuilderFactory() {
+        this(true);
+    }
+    
+    /**
+     * @param signaturesOnly false to keep the code generated in light classes mode
+     */
+    public LightClassBuilderFactory(boolean signaturesOnly) {
+        this.signaturesOnly = signaturesOnly;
+    }
 
     @Override
     @NotNull
@@ -48,13 +71,15 @@ public class LightClassBuilderFactory implements ClassBuilderFactory {
     @Override
     @NotNull
     public ClassBuilder newClassBuilder(@NotNull JvmDeclarationOrigin origin) {
-        return new AbstractClassBuilder.Concrete(new BinaryClassWriter()) {
+        ClassWriter writer = signaturesOnly ? new ClassWriter(0) : new BinaryClassWriter();
+        return new AbstractClassBuilder.Concrete(writer) {
             @Override
             @NotNull
             public MethodVisitor newMethod(@NotNull JvmDeclarationOrigin origin, int access, @NotNull String name,
                     @NotNull String desc, @Nullable String signature, @Nullable String[] exceptions) {
                 saveJvmSignature(origin, name, desc);
-                return super.newMethod(origin, access, name, desc, signature, exceptions);
+                MethodVisitor visitor = super.newMethod(origin, access, name, desc, signature, exceptions);
+                return signaturesOnly ? new SignatureOnlyMethodVisitor(visitor, access, desc) : visitor;
             }
 
             @Override
@@ -93,4 +118,70 @@ public class LightClassBuilderFactory implements ClassBuilderFactory {
     @Override
     public void close() {
     }
+    
+    /**
+     * Passes the signature part of a method to the class writer and drops its code. 
+     * A method which has code gets the body {@code throw null} instead.
+     */
+    private static class SignatureOnlyMethodVisitor extends MethodVisitor {
+        
+        private final MethodVisitor delegate;
+        private final int maxLocals;
+        private boolean hasCode = false;
+        
+        SignatureOnlyMethodVisitor(MethodVisitor delegate, int access, String desc) {
+            super(Opcodes.ASM5);
+            this.delegate = delegate;
+            // the arguments size includes the receiver
+            int argumentsSize = Type.getArgumentsAndReturnSizes(desc) >> 2;
+            this.maxLocals = (access & Opcodes.ACC_STATIC) != 0 ? argumentsSize - 1 : argumentsSize;
+        }
+        
+        @Override
+        public void visitParameter(String name, int access) {
+            delegate.visitParameter(name, access);
+        }
+        
+        @Override
+        public AnnotationVisitor visitAnnotationDefault() {
+            return delegate.visitAnnotationDefault();
+        }
+        
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            return delegate.visitAnnotation(desc, visible);
+        }
+        
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String desc, boolean visible) {
+            return delegate.visitTypeAnnotation(typeRef, typePath, desc, visible);
+        }
+        
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
+            return delegate.visitParameterAnnotation(parameter, desc, visible);
+        }
+        
+        @Override
+        public void visitAttribute(Attribute attr) {
+            delegate.visitAttribute(attr);
+        }
+        
+        @Override
+        public void visitCode() {
+            hasCode = true;
+        }
+        
+        @Override
+        public void visitEnd() {
+            if (hasCode) {
+                delegate.visitCode();
+                delegate.visitInsn(Opcodes.ACONST_NULL);
+                delegate.visitInsn(Opcodes.ATHROW);
+                delegate.visitMaxs(1, maxLocals);
+            }
+            delegate.visitEnd();
+        }
+        
+    }
 }
\ No newline at end of file
@@ -18,10 +18,9 @@ package org.jetbrains.kotlin.filesystem.lightclasses;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.regex.Pattern;
 import org.jetbrains.kotlin.projectsextensions.KotlinProjectHelper;
-import org.jetbrains.kotlin.utils.ProjectUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.netbeans.api.project.Project;
 import org.openide.filesystems.FileObject;
 import org.openide.filesystems.FileUtil;
@@ -41,7 +40,7 @@ public final class LightClassFile {
     }
     
     public boolean exists(){
-        return FileUtil.toFile(fileObject).exists();
+        return fileObject != null && fileObject.isValid();
     }
 
     public FileObject createIfNotExists(FileObject file, Project project, String path) {
@@ -49,43 +48,23 @@ public final class LightClassFile {
             return file;
         } 
         
-        String[] pathParts = path.split(Pattern.quote(ProjectUtils.FILE_SEPARATOR));
-        
-        if (pathParts.length == 1){
-            pathParts = path.split("/");
-        }
-        
-        StringBuilder packages = new StringBuilder();
-        for (int i = 0; i < pathParts.length-1;i++){
-            packages.append(pathParts[i]).append(ProjectUtils.FILE_SEPARATOR);
-        }
-        
-        File f = new File(KotlinProjectHelper.INSTANCE.getLightClassesDirectory(project).getPath() + ProjectUtils.FILE_SEPARATOR + packages.toString());
-        if (!f.exists()){
-            f.mkdirs();
-        }
-        
-        f = new File(KotlinProjectHelper.INSTANCE.getLightClassesDirectory(project).getPath() + ProjectUtils.FILE_SEPARATOR + path);  
-
         try {
-            if (f.exists()){
-                f.delete();
-            }
-            f.createNewFile();
-            
+            return FileUtil.createData(KotlinProjectHelper.INSTANCE.getLightClassesDirectory(project), path);
         } catch (IOException ex) {
             Exceptions.printStackTrace(ex);
         } 
         
-        
-        return FileUtil.toFileObject(f);
+        return null;
     }
     
     public void refreshFile(){
         fileObject.refresh();
     }
     
-    @NotNull
+    /**
+     * Returns null as light classes are kept in a memory filesystem.
+     */
+    @Nullable
     public File asFile(){
         return FileUtil.toFile(fileObject);
     }
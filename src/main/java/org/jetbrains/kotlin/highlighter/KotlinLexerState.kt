@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.highlighter
+
+/**
+ * Kind of the last significant token, used to tell soft keywords from identifiers.
+ */
+enum class PreviousToken {
+    NONE, MEMBER_ACCESS, MODIFIER, OPERAND, PARAMETER_START, RBRACE, OTHER
+}
+
+/**
+ * Strings, string templates and KDoc comments which are open at a token boundary. The Kotlin
+ * lexer keeps them on a stack which cannot be restored from outside, so lexing restarts on 
+ * [prefix], a short text which opens them again in the same order. Inside a KDoc comment
+ * the KDoc lexer is restarted in [kDocState]. Nestings are interned, so they are compared 
+ * by identity and a token boundary costs no allocation.
+ */
+class LexerNesting private constructor(
+        val parent: LexerNesting?,
+        val opener: String,
+        val kDocState: Int,
+        val kDocDepth: Int) {
+
+    val prefix: String = (parent?.prefix ?: "") + opener
+    
+    private val children = arrayListOf<LexerNesting>()
+    
+    val isKDoc: Boolean
+        get() = kDocState != NO_KDOC
+
+    fun open(opener: String): LexerNesting = child(opener, NO_KDOC, 0)
+
+    /**
+     * Returns the nesting inside a KDoc comment which contains [depth] unclosed block comments.
+     */
+    fun openKDoc(kDocState: Int, depth: Int): LexerNesting {
+        val kDocDepth = Math.max(depth, 0)
+        return child(KDOC_START + BLOCK_COMMENT_START.repeat(kDocDepth), kDocState, kDocDepth)
+    }
+
+    fun close(): LexerNesting = parent ?: this
+
+    private fun child(opener: String, kDocState: Int, kDocDepth: Int): LexerNesting = synchronized(children) {
+        for (child in children) {
+            if (child.kDocState == kDocState && child.opener == opener) return child
+        }
+        
+        val child = LexerNesting(this, opener, kDocState, kDocDepth)
+        children.add(child)
+        child
+    }
+
+    companion object {
+        const val NO_KDOC = -1
+        
+        // openers are separated by spaces, so they never merge into another token
+        private const val KDOC_START = "/** "
+        private const val BLOCK_COMMENT_START = "/* "
+        
+        val TOP_LEVEL = LexerNesting(null, "", NO_KDOC, 0)
+    }
+}
+
+/**
+ * State of [KotlinTokenScanner] between two tokens.
+ */
+class KotlinLexerState private constructor(
+        val nesting: LexerNesting,
+        val previous: PreviousToken,
+        val lineStart: Boolean) {
+
+    override fun equals(other: Any?) = other is KotlinLexerState && nesting === other.nesting
+            && previous == other.previous && lineStart == other.lineStart
+
+    override fun hashCode() = (System.identityHashCode(nesting) * 31 + previous.hashCode()) * 31 + lineStart.hashCode()
+
+    companion object {
+        private val topLevelStates = PreviousToken.values().map {
+            listOf(KotlinLexerState(LexerNesting.TOP_LEVEL, it, false), KotlinLexerState(LexerNesting.TOP_LEVEL, it, true))
+        }
+
+        fun create(nesting: LexerNesting, previous: PreviousToken, lineStart: Boolean): KotlinLexerState =
+                if (nesting === LexerNesting.TOP_LEVEL) topLevelStates[previous.ordinal][if (lineStart) 1 else 0]
+                else KotlinLexerState(nesting, previous, lineStart)
+    }
+}
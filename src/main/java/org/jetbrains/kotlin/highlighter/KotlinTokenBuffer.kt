@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.highlighter
+
+import com.intellij.psi.tree.IElementType
+
+/**
+ * Queue of raw lexer tokens packed into an int array. Tokens are stored as the element
+ * type index, start, end and flags, with the lexer nesting after the token kept in a 
+ * parallel array, so lexing ahead allocates nothing per token.
+ */
+class KotlinTokenBuffer(initialCapacity: Int = 16) {
+
+    private var data = IntArray(initialCapacity * FIELDS)
+    private var nestings = arrayOfNulls<LexerNesting>(initialCapacity)
+    private var head = 0
+    
+    var size = 0
+        private set
+    
+    fun isEmpty() = size == 0
+    
+    fun add(type: IElementType, start: Int, end: Int, nesting: LexerNesting, significant: Boolean) {
+        if (size * FIELDS == data.size) grow()
+        
+        val offset = slot(size)
+        data[offset] = type.index.toInt()
+        data[offset + START] = start
+        data[offset + END] = end
+        data[offset + FLAGS] = if (significant) SIGNIFICANT else 0
+        nestings[offset / FIELDS] = nesting
+        size++
+    }
+    
+    fun removeFirst() {
+        if (size == 0) throw NoSuchElementException()
+        
+        nestings[head / FIELDS] = null
+        head = (head + FIELDS) % data.size
+        size--
+    }
+    
+    fun type(index: Int): IElementType = IElementType.find(data[offset(index)].toShort())
+    
+    fun start(index: Int) = data[offset(index) + START]
+    
+    fun end(index: Int) = data[offset(index) + END]
+    
+    fun nesting(index: Int): LexerNesting = nestings[offset(index) / FIELDS]!!
+    
+    fun isSignificant(index: Int) = data[offset(index) + FLAGS] and SIGNIFICANT != 0
+    
+    fun setEnd(index: Int, end: Int) {
+        data[offset(index) + END] = end
+    }
+    
+    private fun offset(index: Int): Int {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index: $index, size: $size")
+        
+        return slot(index)
+    }
+    
+    private fun slot(index: Int) = (head + index * FIELDS) % data.size
+    
+    private fun grow() {
+        val newData = IntArray(data.size * 2)
+        val tail = data.size - head
+        System.arraycopy(data, head, newData, 0, tail)
+        System.arraycopy(data, 0, newData, tail, head)
+        data = newData
+        
+        val newNestings = arrayOfNulls<LexerNesting>(nestings.size * 2)
+        System.arraycopy(nestings, head / FIELDS, newNestings, 0, tail / FIELDS)
+        System.arraycopy(nestings, 0, newNestings, tail / FIELDS, head / FIELDS)
+        nestings = newNestings
+        head = 0
+    }
+    
+    private companion object {
+        const val FIELDS = 4
+        const val START = 1
+        const val END = 2
+        const val FLAGS = 3
+        const val SIGNIFICANT = 1
+    }
+}
@@ -16,83 +16,433 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.highlighter
 
-import com.intellij.psi.PsiElement
-import org.jetbrains.kotlin.builder.KotlinPsiManager
+import com.intellij.psi.tree.IElementType
 import org.jetbrains.kotlin.highlighter.netbeans.KotlinToken
 import org.jetbrains.kotlin.highlighter.netbeans.KotlinTokenId
-import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.kdoc.lexer.KDocLexer
+import org.jetbrains.kotlin.language.KotlinLanguageHierarchy
+import org.jetbrains.kotlin.lexer.KotlinLexer
+import org.jetbrains.kotlin.lexer.KtKeywordToken
+import org.jetbrains.kotlin.lexer.KtTokens
 import org.netbeans.spi.lexer.LexerInput
 
-class KotlinTokenScanner(val input: LexerInput?, text: String? = null) {
+/**
+ * View of [buffer] from [from] to [to] behind [prefix], which keeps the offsets of the buffer 
+ * when the prefix is empty and [from] is 0.
+ */
+private class PrefixedText(private val prefix: String, private val buffer: CharSequence, 
+        private val from: Int, private val to: Int) : CharSequence {
+
+    override val length: Int
+        get() = prefix.length + to - from
+
+    override fun get(index: Int) = if (index < prefix.length) prefix[index] else buffer[from + index - prefix.length]
+
+    override fun subSequence(startIndex: Int, endIndex: Int) = toString().subSequence(startIndex, endIndex)
+
+    override fun toString() = prefix + buffer.subSequence(from, to)
+}
+
+/**
+ * Splits Kotlin text into highlighting tokens with the Kotlin lexer, without building PSI.
+ * The input is read in chunks as tokens are requested, so after an edit NetBeans relexes 
+ * only until the token states match again and reads little beyond the relexed tokens.
+ * Soft keywords are told from identifiers by the surrounding tokens.
+ */
+class KotlinTokenScanner(val input: LexerInput?, text: String? = null, initialState: KotlinLexerState? = null) {
 
     private val kotlinTokensFactory = KotlinTokensFactory()
-    private val ktFile: KtFile?
-    val tokens = arrayListOf<KotlinToken<KotlinTokenId>>()
+    private val lexer = KotlinLexer()
+    private val kDocLexer = KDocLexer()
     
-    init {
-        if (text == null) {
-            ktFile = KotlinPsiManager.INSTANCE.getParsedKtFileForSyntaxHighlighting(getTextToParse())
-        } else {
-            ktFile = KotlinPsiManager.INSTANCE.getParsedKtFileForSyntaxHighlighting(text)
+    private val source = text
+    // the text read so far, offsets in the buffer are offsets from the lexing start
+    private val buffer = StringBuilder()
+    private var inputEnd = false
+    // offset where the current token of the lexer input starts
+    private var inputStart = 0
+    // offset up to which the classification of the current token looked ahead
+    private var lookaheadEnd = 0
+    private val queue = KotlinTokenBuffer()
+    
+    // the lexer runs over the prefix of restartNesting followed by the buffer from restartFrom
+    private var restartNesting = LexerNesting.TOP_LEVEL
+    private var restartFrom = 0
+    private var lexerShift = 0
+    private var lexerEnd = 0
+    // nesting after the last lexed token
+    private var nesting = LexerNesting.TOP_LEVEL
+    
+    // the raw token under the cursor
+    private var rawType: IElementType? = null
+    private var rawStart = 0
+    private var rawEnd = 0
+    private var rawNesting = LexerNesting.TOP_LEVEL
+    private var rawSignificant = false
+    
+    // set by peekSignificant if a line break precedes the peeked token
+    private var newLineBefore = false
+    
+    private var previous: PreviousToken
+    private var lineStart: Boolean
+    
+    val tokens: List<KotlinToken<KotlinTokenId>> by lazy {
+        val allTokens = arrayListOf<KotlinToken<KotlinTokenId>>()
+        while (true) {
+            val tokenType = advance() ?: break
+            allTokens.add(createToken(tokenType, tokenText()))
         }
-        createListOfKotlinTokens()
+        allTokens.add(createToken(TokenType.EOF, ""))
+        allTokens
+    }
+    
+    init {
+        previous = initialState?.previous ?: PreviousToken.NONE
+        lineStart = initialState?.lineStart ?: true
+        fill()
+        restart(initialState?.nesting ?: LexerNesting.TOP_LEVEL, 0)
     }
     
     constructor(text: String) : this(null, text)
     
-    private fun getTextToParse(): String {
-        if (input == null) return ""
-        val builder = StringBuilder()
-        var character: Int
-        
-        do {
-            character = input.read()
-            builder.append(character.toChar())
-        } while (character != LexerInput.EOF)
+    /**
+     * Appends the next chunk of the input to the buffer. Chunks grow with the part of the
+     * buffer after the current token start, so a long token is read in linear time.
+     */
+    private fun fill() {
+        val count = Math.max(FILL_SIZE, buffer.length - rawStart)
+        if (input == null) {
+            val sourceLength = source?.length ?: 0
+            val end = Math.min(sourceLength, buffer.length + count)
+            if (source != null) buffer.append(source, buffer.length, end)
+            inputEnd = end == sourceLength
+            return
+        }
         
+        // the input is at the start of the current token
+        for (i in inputStart..buffer.length - 1) {
+            input.read()
+        }
+        for (i in 1..count) {
+            val character = input.read()
+            if (character == LexerInput.EOF) {
+                inputEnd = true
+                break
+            }
+            buffer.append(character.toChar())
+        }
         input.backup(input.readLengthEOF())
-        return builder.toString()
     }
     
-    private fun createListOfKotlinTokens() {
-        tokens.clear()
-        if (ktFile == null) return
+    /**
+     * Starts the lexer at [from] in the state given by [nesting].
+     */
+    private fun restart(nesting: LexerNesting, from: Int) {
+        restartNesting = nesting
+        restartFrom = from
+        lexerEnd = buffer.length
+        this.nesting = nesting
         
-        var lastElement: PsiElement?
-        var offset = 0
+        val prefix = nesting.prefix
+        if (prefix.isEmpty()) {
+            lexerShift = 0
+            lexer.start(buffer, from, lexerEnd, 0)
+            return
+        }
         
-        while(true) {
-            lastElement = ktFile.findElementAt(offset)
-            if (lastElement != null) {
-                offset = lastElement.textRange.endOffset
-                val tokenType = kotlinTokensFactory.getToken(lastElement)
-                tokens.add(KotlinToken(
-                        KotlinTokenId(tokenType.name, tokenType.name, tokenType.getId()),
-                        lastElement.text, tokenType))
+        lexerShift = from - prefix.length
+        lexer.start(PrefixedText(prefix, buffer, from, lexerEnd), 0, prefix.length + lexerEnd - from, 0)
+        while (lexer.tokenType != null && lexer.tokenEnd <= prefix.length) {
+            lexer.advance()
+        }
+    }
+    
+    /**
+     * Moves to the next token and reads it from the lexer input.
+     * @return type of the token or null at the end of input
+     */
+    fun nextTokenType(): TokenType? {
+        val tokenType = advance()
+        if (input == null) return tokenType
+        
+        if (tokenType == null) {
+            while (input.read() != LexerInput.EOF) {}
+            input.backup(1)
+            return if (input.readLength() > 0) TokenType.UNDEFINED else null
+        }
+        
+        // the characters the token depends on are read, so that NetBeans relexes it 
+        // when they change
+        val tokenLength = rawEnd - inputStart
+        val lookahead = Math.max(1, lookaheadEnd - rawEnd)
+        for (i in 1..tokenLength + lookahead) {
+            if (input.read() == LexerInput.EOF) break
+        }
+        input.backup(input.readLengthEOF() - tokenLength)
+        inputStart = rawEnd
+        
+        return tokenType
+    }
+    
+    fun getNextToken(): KotlinToken<KotlinTokenId>? {
+        if (input == null) {
+            val tokenType = advance() ?: return null
+            return createToken(tokenType, tokenText())
+        }
+        
+        val tokenType = nextTokenType() ?: return null
+        
+        return createToken(tokenType, input.readText()?.toString() ?: "")
+    }
+    
+    /**
+     * Returns the state after the current token, null if lexing can be restarted 
+     * there as at the beginning of a file.
+     */
+    fun state(): KotlinLexerState? {
+        if (rawNesting === LexerNesting.TOP_LEVEL && previous == PreviousToken.NONE && lineStart) return null
+        
+        return KotlinLexerState.create(rawNesting, previous, lineStart)
+    }
+    
+    private fun advance(): TokenType? {
+        if (!nextRawToken()) return null
+        
+        lookaheadEnd = rawEnd
+        return classify()
+    }
+    
+    private fun tokenText() = buffer.substring(rawStart, rawEnd)
+    
+    private fun createToken(tokenType: TokenType, text: String) = 
+            KotlinToken(KotlinLanguageHierarchy.getToken(tokenType.getId()), text, tokenType)
+    
+    private fun nextRawToken(): Boolean {
+        if (queue.isEmpty() && !lexRawToken()) return false
+        
+        rawType = queue.type(0)
+        rawStart = queue.start(0)
+        rawEnd = queue.end(0)
+        rawNesting = queue.nesting(0)
+        rawSignificant = queue.isSignificant(0)
+        queue.removeFirst()
+        
+        return true
+    }
+    
+    private fun lexRawToken(): Boolean {
+        var type = lexer.tokenType
+        // a token which reaches the end of the buffer may continue in the next chunk
+        while (!inputEnd && (type == null || lexer.tokenEnd + lexerShift > lexerEnd - TOKEN_LOOKAHEAD)) {
+            val start = if (type == null) lexerEnd else lexer.tokenStart + lexerShift
+            fill()
+            if (start < restartFrom) {
+                restart(restartNesting, restartFrom)
             } else {
-                tokens.add(KotlinToken(
-                        KotlinTokenId(TokenType.EOF.name, TokenType.EOF.name, TokenType.EOF.getId()),
-                        "", TokenType.EOF))
-                break
+                restart(nesting, start)
             }
+            type = lexer.tokenType
+        }
+        if (type == null) return false
+        
+        val start = lexer.tokenStart + lexerShift
+        val end = lexer.tokenEnd + lexerShift
+        lexer.advance()
+        
+        if (start < restartFrom && restartNesting.isKDoc) {
+            // the rest of a KDoc comment which the state prefix opened
+            splitDocComment(restartFrom, end, restartFrom, restartNesting.kDocState, 
+                    restartNesting.kDocDepth, restartNesting.close())
+            return true
         }
+        
+        if (type == KtTokens.DOC_COMMENT) {
+            splitDocComment(start, end, start + KDOC_START_LENGTH, 0, 0, nesting)
+            return true
+        }
+        
+        nesting = nextNesting(nesting, type, end - start)
+        val significant = type !in KtTokens.WHITESPACES && type !in KtTokens.COMMENTS
+        queue.add(type, Math.max(start, restartFrom), end, nesting, significant)
+        
+        return true
     }
     
-    fun getNextToken(): KotlinToken<KotlinTokenId>? {
-        if (input == null) return null
-        if (tokens.isNotEmpty()) {
-            var ktToken = tokens.first()
-            tokens.removeAt(0)
-            var tokenLength = ktToken.length()
-            while (tokenLength > 0) {
-                input.read()
-                tokenLength--
+    private fun nextNesting(current: LexerNesting, type: IElementType, length: Int): LexerNesting {
+        // a short template entry ends with the identifier after the dollar
+        val nesting = if (current.opener == SHORT_TEMPLATE) current.close() else current
+        
+        return when (type) {
+            KtTokens.OPEN_QUOTE -> nesting.open(if (length == RAW_QUOTE.length) RAW_QUOTE else QUOTE)
+            KtTokens.SHORT_TEMPLATE_ENTRY_START -> nesting.open(SHORT_TEMPLATE)
+            KtTokens.LONG_TEMPLATE_ENTRY_START -> nesting.open(LONG_TEMPLATE)
+            // the lexer counts braces only inside templates
+            KtTokens.LBRACE -> if (nesting.opener == LONG_TEMPLATE || nesting.opener == BRACE) nesting.open(BRACE) else nesting
+            KtTokens.RBRACE -> if (nesting.opener == BRACE) nesting.close() else nesting
+            KtTokens.CLOSING_QUOTE, KtTokens.DANGLING_NEWLINE, KtTokens.LONG_TEMPLATE_ENTRY_END -> nesting.close()
+            else -> nesting
+        }
+    }
+    
+    /**
+     * Splits the KDoc comment which ends at [end] into KDoc tokens, starting at [start] in 
+     * [kDocState] with [kDocDepth] unclosed nested block comments. Nested block comments are 
+     * counted from [scanStart], so that lexing can be restarted after every token.
+     */
+    private fun splitDocComment(start: Int, end: Int, scanStart: Int, kDocState: Int, 
+            kDocDepth: Int, outer: LexerNesting) {
+        val firstIndex = queue.size
+        var depth = kDocDepth
+        var scan = scanStart
+        // the KDoc lexer recognizes the end of the comment by the end of its text
+        kDocLexer.start(PrefixedText("", buffer, 0, end), start, end, kDocState)
+        while (true) {
+            val type = kDocLexer.tokenType ?: break
+            val tokenStart = kDocLexer.tokenStart
+            val tokenEnd = kDocLexer.tokenEnd
+            kDocLexer.advance()
+            
+            while (scan < tokenEnd - 1) {
+                if (buffer[scan] == '/' && buffer[scan + 1] == '*') {
+                    depth++
+                    scan += 2
+                } else if (buffer[scan] == '*' && buffer[scan + 1] == '/') {
+                    depth--
+                    scan += 2
+                } else {
+                    scan++
+                }
             }
-            return ktToken
+            
+            val boundary = if (kDocLexer.tokenType != null) outer.openKDoc(kDocLexer.state, depth) else outer
+            queue.add(type, tokenStart, tokenEnd, boundary, false)
+        }
+        
+        if (queue.size == firstIndex) {
+            queue.add(KtTokens.DOC_COMMENT, start, end, outer, false)
         } else {
-            input.read()
-            return KotlinToken(KotlinTokenId(TokenType.EOF.name, TokenType.EOF.name, TokenType.EOF.getId()),
-                    "", TokenType.EOF)
+            queue.setEnd(queue.size - 1, end)
+        }
+        nesting = outer
+    }
+    
+    /**
+     * Returns the index in the queue of the next significant token after the cursor,
+     * or -1 at the end of input.
+     */
+    private fun peekSignificant(): Int {
+        newLineBefore = false
+        var index = 0
+        while (true) {
+            if (index == queue.size && !lexRawToken()) {
+                lookaheadEnd = buffer.length
+                return -1
+            }
+            if (queue.isSignificant(index)) {
+                lookaheadEnd = Math.max(lookaheadEnd, queue.end(index))
+                return index
+            }
+            
+            newLineBefore = newLineBefore || containsNewLine(queue.start(index), queue.end(index))
+            index++
+        }
+    }
+    
+    private fun classify(): TokenType {
+        val type = rawType!!
+        val tokenType = if (type == KtTokens.IDENTIFIER && isSoftKeyword()) {
+            TokenType.KEYWORD
+        } else {
+            kotlinTokensFactory.getToken(type)
         }
+        
+        if (!rawSignificant) {
+            lineStart = lineStart || containsNewLine(rawStart, rawEnd)
+            return tokenType
+        }
+        
+        previous = when (type) {
+            KtTokens.IDENTIFIER -> if (tokenType == TokenType.KEYWORD && text(rawStart, rawEnd) in MODIFIERS) 
+                PreviousToken.MODIFIER else PreviousToken.OPERAND
+            KtTokens.DOT, KtTokens.SAFE_ACCESS, KtTokens.COLONCOLON -> PreviousToken.MEMBER_ACCESS
+            KtTokens.LPAR, KtTokens.COMMA, KtTokens.LT -> PreviousToken.PARAMETER_START
+            KtTokens.RBRACE -> PreviousToken.RBRACE
+            KtTokens.RPAR, KtTokens.RBRACKET, KtTokens.GT, KtTokens.QUEST, KtTokens.CLOSING_QUOTE,
+            KtTokens.INTEGER_LITERAL, KtTokens.FLOAT_LITERAL, KtTokens.CHARACTER_LITERAL -> PreviousToken.OPERAND
+            else -> PreviousToken.OTHER
+        }
+        lineStart = false
+        
+        return tokenType
+    }
+    
+    private fun isSoftKeyword(): Boolean {
+        if (rawEnd - rawStart > MAX_SOFT_KEYWORD_LENGTH || previous == PreviousToken.MEMBER_ACCESS) return false
+        
+        val text = text(rawStart, rawEnd)
+        if (text !in SOFT_KEYWORDS) return false
+        
+        val next = peekSignificant()
+        val nextType = if (next >= 0) queue.type(next) else null
+        
+        return when (text) {
+            "import" -> lineStart && nextType == KtTokens.IDENTIFIER && !newLineBefore
+            "get", "set" -> previous == PreviousToken.MODIFIER || (lineStart && nextType == KtTokens.LPAR)
+            "companion" -> nextType == KtTokens.OBJECT_KEYWORD
+            "constructor" -> nextType == KtTokens.LPAR
+            "init" -> nextType == KtTokens.LBRACE
+            "by" -> previous == PreviousToken.OPERAND && (nextType == KtTokens.IDENTIFIER 
+                    || nextType == KtTokens.OBJECT_KEYWORD || nextType == KtTokens.THIS_KEYWORD)
+            "where" -> previous == PreviousToken.OPERAND && nextType == KtTokens.IDENTIFIER
+            "catch" -> previous == PreviousToken.RBRACE && nextType == KtTokens.LPAR
+            "finally" -> previous == PreviousToken.RBRACE && nextType == KtTokens.LBRACE
+            in MODIFIERS -> startsDeclaration(next) || (text in PARAMETER_MODIFIERS 
+                    && previous == PreviousToken.PARAMETER_START && nextType == KtTokens.IDENTIFIER)
+            else -> false
+        }
+    }
+    
+    private fun startsDeclaration(index: Int): Boolean {
+        if (index < 0) return false
+        
+        return when (queue.type(index)) {
+            KtTokens.CLASS_KEYWORD, KtTokens.FUN_KEYWORD, KtTokens.VAL_KEYWORD, KtTokens.VAR_KEYWORD,
+            KtTokens.INTERFACE_KEYWORD, KtTokens.OBJECT_KEYWORD, KtTokens.AT -> true
+            KtTokens.IDENTIFIER -> {
+                val text = text(queue.start(index), queue.end(index))
+                text in MODIFIERS || text in DECLARATION_SOFT_KEYWORDS
+            }
+            else -> false
+        }
+    }
+    
+    private fun text(start: Int, end: Int) = buffer.substring(start, end)
+    
+    private fun containsNewLine(start: Int, end: Int): Boolean {
+        for (i in start..end - 1) {
+            if (buffer[i] == '\n') return true
+        }
+        
+        return false
+    }
+    
+    companion object {
+        private val SOFT_KEYWORDS = KtTokens.SOFT_KEYWORDS.types.map { (it as KtKeywordToken).value }.toSet()
+        private val MAX_SOFT_KEYWORD_LENGTH = SOFT_KEYWORDS.map { it.length }.max() ?: 0
+        private val MODIFIERS = KtTokens.MODIFIER_KEYWORDS.types.map { (it as KtKeywordToken).value }
+                .filter { it in SOFT_KEYWORDS }.toSet()
+        private val PARAMETER_MODIFIERS = setOf("vararg", "noinline", "crossinline", "reified", "out")
+        private val DECLARATION_SOFT_KEYWORDS = setOf("constructor", "init", "companion", "get", "set")
+        
+        private const val FILL_SIZE = 256
+        // tokens closer to the end of the buffer are lexed again when more input is read
+        private const val TOKEN_LOOKAHEAD = 16
+        
+        private const val QUOTE = "\""
+        private const val RAW_QUOTE = "\"\"\""
+        private const val SHORT_TEMPLATE = "$"
+        private const val LONG_TEMPLATE = "\${"
+        private const val BRACE = "{"
+        private const val KDOC_START_LENGTH = 3
     }
-}
\ No newline at end of file
+}
@@ -27,7 +27,10 @@ class KotlinTokensFactory {
     fun getToken(leafElement: PsiElement): TokenType {
         if (leafElement !is LeafPsiElement) return TokenType.UNDEFINED
 
-        val elementType = leafElement.getElementType()
+        return getToken(leafElement.getElementType())
+    }
+
+    fun getToken(elementType: IElementType): TokenType {
         return when {
             elementType in KtTokens.KEYWORDS ||
                     elementType in KtTokens.SOFT_KEYWORDS ||
@@ -17,6 +17,7 @@
 package org.jetbrains.kotlin.highlighter.netbeans
 
 import org.jetbrains.kotlin.language.KotlinLanguageHierarchy
+import org.jetbrains.kotlin.highlighter.KotlinLexerState
 import org.jetbrains.kotlin.highlighter.KotlinTokenScanner
 import org.netbeans.api.lexer.Token
 import org.netbeans.spi.lexer.Lexer
@@ -25,21 +26,17 @@ import org.netbeans.spi.lexer.LexerRestartInfo
 
 class KotlinLexerProxy(private val info: LexerRestartInfo<KotlinTokenId>) : Lexer<KotlinTokenId> {
     
-    private val kotlinTokenScanner: KotlinTokenScanner by lazy { KotlinTokenScanner(input) }
     private val input: LexerInput = info.input()
+    private val kotlinTokenScanner = KotlinTokenScanner(input, null, info.state() as? KotlinLexerState)
     
     override fun nextToken(): Token<KotlinTokenId>? {
-        val token = kotlinTokenScanner.getNextToken()
+        val tokenType = kotlinTokenScanner.nextTokenType() ?: return null
         
         if (input.readLength() < 1) return null
         
-        return if (token == null) {
-            info.tokenFactory().createToken(KotlinLanguageHierarchy.getToken(7))
-        }  else {
-            info.tokenFactory().createToken(KotlinLanguageHierarchy.getToken(token.id().ordinal()))
-        }
+        return info.tokenFactory().createToken(KotlinLanguageHierarchy.getToken(tokenType.getId()))
     }
     
-    override fun state() = null
+    override fun state(): Any? = kotlinTokenScanner.state()
     override fun release() {}
 }
\ No newline at end of file
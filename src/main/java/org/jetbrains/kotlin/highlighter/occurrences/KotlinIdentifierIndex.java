@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.highlighter.occurrences;
+
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.lexer.KtTokens;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.psi.KtPsiUtil;
+
+/**
+ * Offsets of the identifiers of a file grouped by name. The index of a file is built
+ * once per modification stamp of its PSI, so repeated searches in an unchanged file
+ * do not scan its text again.
+ */
+public class KotlinIdentifierIndex {
+
+    private static final int[] NO_OFFSETS = new int[0];
+    private static final Map<KtFile, KotlinIdentifierIndex> INDICES = new WeakHashMap<>();
+
+    private final long modificationStamp;
+    private final Map<String, int[]> offsets;
+
+    private KotlinIdentifierIndex(long modificationStamp, Map<String, int[]> offsets) {
+        this.modificationStamp = modificationStamp;
+        this.offsets = offsets;
+    }
+
+    @NotNull
+    public static KotlinIdentifierIndex get(@NotNull KtFile ktFile) {
+        long stamp = ktFile.getModificationStamp();
+        synchronized (INDICES) {
+            KotlinIdentifierIndex index = INDICES.get(ktFile);
+            if (index != null && index.modificationStamp == stamp) {
+                return index;
+            }
+        }
+
+        KotlinIdentifierIndex index = build(ktFile, stamp);
+        synchronized (INDICES) {
+            INDICES.put(ktFile, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns start offsets of the identifiers with the given name, in ascending order.
+     */
+    @NotNull
+    public int[] getOffsets(@NotNull String name) {
+        int[] nameOffsets = offsets.get(name);
+        return nameOffsets != null ? nameOffsets : NO_OFFSETS;
+    }
+
+    private static KotlinIdentifierIndex build(KtFile ktFile, long stamp) {
+        final Map<String, List<Integer>> offsetLists = new HashMap<>();
+        ktFile.accept(new PsiRecursiveElementWalkingVisitor() {
+            @Override
+            public void visitElement(PsiElement element) {
+                if (element.getFirstChild() != null) {
+                    super.visitElement(element);
+                    return;
+                }
+
+                if (element.getNode().getElementType() == KtTokens.IDENTIFIER) {
+                    String name = KtPsiUtil.unquoteIdentifier(element.getText());
+                    List<Integer> nameOffsets = offsetLists.get(name);
+                    if (nameOffsets == null) {
+                        nameOffsets = new ArrayList<>();
+                        offsetLists.put(name, nameOffsets);
+                    }
+                    nameOffsets.add(element.getTextRange().getStartOffset());
+                }
+            }
+        });
+
+        Map<String, int[]> offsets = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : offsetLists.entrySet()) {
+            List<Integer> nameOffsets = entry.getValue();
+            int[] array = new int[nameOffsets.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = nameOffsets.get(i);
+            }
+            offsets.put(entry.getKey(), array);
+        }
+
+        return new KotlinIdentifierIndex(stamp, offsets);
+    }
+
+}
@@ -22,7 +22,6 @@ import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParserResult
 import org.jetbrains.kotlin.navigation.references.resolveToSourceDeclaration
 import org.jetbrains.kotlin.descriptors.SourceElement
 import org.jetbrains.kotlin.psi.KtElement
-import org.jetbrains.kotlin.psi.KtFile
 import org.netbeans.modules.csl.api.ColoringAttributes
 import org.netbeans.modules.csl.api.OccurrencesFinder
 import org.netbeans.modules.csl.api.OffsetRange
@@ -32,7 +31,7 @@ import org.netbeans.modules.parsing.spi.SchedulerEvent
 class KotlinOccurrencesFinder : OccurrencesFinder<KotlinParserResult>() {
     
     private var caretPosition = 0
-    private var cancel = false
+    @Volatile private var cancel = false
     val highlighting = hashMapOf<OffsetRange, ColoringAttributes>()
 
     override fun run(result: KotlinParserResult?, event: SchedulerEvent?) {
@@ -44,7 +43,7 @@ class KotlinOccurrencesFinder : OccurrencesFinder<KotlinParserResult>() {
         
         val psiElement = ktFile.findElementAt(caretPosition)
         val ktElement = PsiTreeUtil.getNonStrictParentOfType(psiElement, KtElement::class.java) ?: return
-        findOccurrences(ktElement, ktFile)
+        findOccurrences(ktElement, result)
     }
 
     override fun getSchedulerClass() = Scheduler.EDITOR_SENSITIVE_TASK_SCHEDULER
@@ -61,12 +60,15 @@ class KotlinOccurrencesFinder : OccurrencesFinder<KotlinParserResult>() {
         caretPosition = position
     }
     
-    private fun findOccurrences(ktElement : KtElement, ktFile: KtFile) {
-        val sourceElements = ktElement.resolveToSourceDeclaration()
-        if (sourceElements.isEmpty()) return
+    private fun findOccurrences(ktElement : KtElement, result: KotlinParserResult) {
+        val bindingContext = result.analysisResult.analysisResult.bindingContext
+        val sourceElements = ktElement.resolveToSourceDeclaration(bindingContext, result.project)
+        if (sourceElements.isEmpty() || cancel) return
         
         val searchingElements = OccurrencesUtils.getSearchingElements(sourceElements)
-        val ranges = OccurrencesUtils.search(searchingElements, ktFile)
+        val ranges = OccurrencesUtils.search(searchingElements, result.ktFile, bindingContext, result.project)
+        if (cancel) return
+        
         ranges.forEach { highlighting.put(it, ColoringAttributes.MARK_OCCURRENCES) }
     }
 }
\ No newline at end of file
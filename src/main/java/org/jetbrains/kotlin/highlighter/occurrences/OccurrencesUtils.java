@@ -30,7 +30,9 @@ import org.jetbrains.kotlin.psi.KtElement;
 import org.jetbrains.kotlin.psi.KtFile;
 import org.jetbrains.kotlin.psi.KtNamedDeclaration;
 import org.jetbrains.kotlin.psi.KtReferenceExpression;
+import org.jetbrains.kotlin.resolve.BindingContext;
 import org.jetbrains.kotlin.resolve.source.KotlinSourceElement;
+import org.netbeans.api.project.Project;
 import org.netbeans.modules.csl.api.OffsetRange;
 
 /**
@@ -52,6 +54,16 @@ public class OccurrencesUtils {
     }
 
     public static List<OffsetRange> search(List<? extends SourceElement> searchingElements, KtFile ktFile) {
+        Project project = ReferenceUtilsKt.getKotlinProject(ktFile);
+        if (project == null) {
+            return Lists.newArrayList();
+        }
+        
+        return search(searchingElements, ktFile, ReferenceUtilsKt.getBindingContext(ktFile, project), project);
+    }
+
+    public static List<OffsetRange> search(List<? extends SourceElement> searchingElements, KtFile ktFile,
+            BindingContext bindingContext, Project project) {
         List<OffsetRange> offsets = Lists.newArrayList();
         List<KtElement> searchElements = getKotlinElements(searchingElements);
         if (searchElements.isEmpty()) {
@@ -59,7 +71,7 @@ public class OccurrencesUtils {
         }
 
         KtElement searchElement = searchElements.get(0);
-        List<KtElement> occurrences = searchTextOccurrences(ktFile, searchElement);
+        List<KtElement> occurrences = searchTextOccurrences(ktFile, searchElement, bindingContext, project);
         for (KtElement ktElement : occurrences) {
             Pair<Integer, Integer> range = getLengthOfIdentifier(ktElement);
             if (range != null) {
@@ -83,6 +95,21 @@ public class OccurrencesUtils {
     }
 
     public static List<KtElement> searchTextOccurrences(KtFile ktFile, KtElement sourceElement) {
+        Project project = ReferenceUtilsKt.getKotlinProject(ktFile);
+        if (project == null) {
+            return new ArrayList<>();
+        }
+        
+        return searchTextOccurrences(ktFile, sourceElement, 
+                ReferenceUtilsKt.getBindingContext(ktFile, project), project);
+    }
+    
+    /**
+     * Finds references to {@code sourceElement} in the file. All candidates are resolved 
+     * against the given binding context, which must be the context of {@code ktFile}.
+     */
+    public static List<KtElement> searchTextOccurrences(KtFile ktFile, KtElement sourceElement, 
+            BindingContext bindingContext, Project project) {
         List<KtElement> elements = new ArrayList<>();
         List<KtElement> elementsToReturn = new ArrayList<>();
 
@@ -113,7 +140,8 @@ public class OccurrencesUtils {
                 continue;
             }
 
-            List<? extends SourceElement> sourceElements = ReferenceUtilsKt.resolveToSourceDeclaration(element);
+            List<? extends SourceElement> sourceElements = 
+                    ReferenceUtilsKt.resolveToSourceDeclaration(element, bindingContext, project);
             if (sourceElements.isEmpty()) {
                 continue;
             }
@@ -129,19 +157,11 @@ public class OccurrencesUtils {
         return elementsToReturn;
     }
 
-    private static List<PsiElement> getAllOccurrencesInFile(KtFile ktFile, String text) {
+    private static List<PsiElement> getAllOccurrencesInFile(KtFile ktFile, String name) {
         List<PsiElement> elements = Lists.newArrayList();
 
-        String source = ktFile.getText();
-        int start = 0;
-
-        while (true) {
-            int index = source.indexOf(text, start);
-            if (index == -1) {
-                break;
-            }
-            elements.add(ktFile.findElementAt(index));
-            start = index + text.length();
+        for (int offset : KotlinIdentifierIndex.get(ktFile).getOffsets(name)) {
+            elements.add(ktFile.findElementAt(offset));
         }
 
         return elements;
@@ -21,7 +21,13 @@ import org.netbeans.modules.csl.api.ColoringAttributes
 class KotlinHighlightingAttributes private constructor() {
     lateinit var styleKey: ColoringAttributes
     
+    // interned, so equal highlightings share one set
+    val styleKeys: Set<ColoringAttributes>
+        get() = coloringSets[styleKey]!!
+    
     companion object {
+        private val coloringSets = ColoringAttributes.values().associate { it to setOf(it) }
+        
         fun withAttributes(changeAttributes: KotlinHighlightingAttributes.() -> Unit): KotlinHighlightingAttributes {
             val attributes = KotlinHighlightingAttributes()
             attributes.changeAttributes()
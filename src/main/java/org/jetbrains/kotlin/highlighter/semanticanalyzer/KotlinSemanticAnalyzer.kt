@@ -16,17 +16,73 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.highlighter.semanticanalyzer
 
+import com.intellij.openapi.util.TextRange
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.psi.PsiElement
+import com.intellij.psi.util.PsiTreeUtil
+import java.util.concurrent.atomic.AtomicLong
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParser
 import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParserResult
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtFile
 import org.netbeans.modules.csl.api.ColoringAttributes
 import org.netbeans.modules.csl.api.OffsetRange
 import org.netbeans.modules.csl.api.SemanticAnalyzer
 import org.netbeans.modules.parsing.spi.Scheduler
 import org.netbeans.modules.parsing.spi.SchedulerEvent
+import org.openide.filesystems.FileObject
+import org.openide.util.RequestProcessor
 
+/**
+ * Semantic highlighting is computed per top-level element of the file, with ranges relative
+ * to the element start. Large classes are split further: their header is highlighted without
+ * the body members, and each member on its own. While the resolution inputs of the file are
+ * the same, that is its declarations and the declarations of the files it references did not
+ * change, elements of the same class whose text did not change resolve the same. Their cached
+ * ranges are only shifted to the new offset, so an edit in one function body recomputes
+ * the ranges of that function only.
+ * 
+ * In files longer than {@code -Dkotlin.highlighting.viewport.chars} characters only elements
+ * near the visible part of the editor are highlighted right away. The rest of the file is 
+ * highlighted in the background, then the tasks of the file are rescheduled to publish it 
+ * from the cache.
+ */
 class KotlinSemanticAnalyzer : SemanticAnalyzer<KotlinParserResult>() {
     
-    private var cancel = false
+    private data class UnitKey(val container: String?, val text: String, val skipMembers: Boolean)
+    
+    private class HighlightingUnit(val element: PsiElement, val skipMembers: Boolean) {
+        // members with the same text may resolve differently in different classes
+        val key: UnitKey
+            get() = UnitKey(PsiTreeUtil.getParentOfType(element, KtClassOrObject::class.java)?.fqName?.asString(),
+                    element.text, skipMembers)
+    }
+    
+    private class FileHighlighting(val resolutionInputs: Any, 
+                                   val units: Map<UnitKey, Map<OffsetRange, Set<ColoringAttributes>>>)
+    
+    private class BackgroundHighlighting(val path: String, val file: FileObject, val resolutionInputs: Any,
+                                         val visitor: KotlinSemanticHighlightingVisitor, 
+                                         val units: List<HighlightingUnit>) : Runnable {
+        @Volatile var cancelled = false
+        
+        override fun run() {
+            val computed = hashMapOf<UnitKey, Map<OffsetRange, Set<ColoringAttributes>>>()
+            for (unit in units) {
+                if (cancelled) return
+                
+                computed[unit.key] = computeRelativeRanges(visitor, unit)
+            }
+            
+            if (!cancelled && addToCache(path, resolutionInputs, computed, false)) {
+                KotlinParser.rescheduleTasks(file)
+            }
+        }
+    }
+    
+    @Volatile private var cancel = false
     private val highlighting = hashMapOf<OffsetRange, Set<ColoringAttributes>>()
+    private var backgroundHighlighting: BackgroundHighlighting? = null
     
     override fun getPriority() = 999
 
@@ -35,10 +91,87 @@ class KotlinSemanticAnalyzer : SemanticAnalyzer<KotlinParserResult>() {
     override fun run(result: KotlinParserResult?, event: SchedulerEvent?) {
         highlighting.clear()
         cancel = false
+        backgroundHighlighting?.cancelled = true
+        backgroundHighlighting = null
         if (result == null) return
         
-        val highlightingVisitor = KotlinSemanticHighlightingVisitor(result.ktFile, result.analysisResult.analysisResult)
-        highlighting.putAll(highlightingVisitor.computeHighlightingRanges())
+        val ktFile = result.ktFile
+        val path = ktFile.virtualFile?.path ?: ""
+        val resolutionInputs = result.analysisResult.resolutionInputs
+        val cached = getCached(path, resolutionInputs)
+        val viewport = if (ktFile.textLength > VIEWPORT_THRESHOLD) findViewport(result) else null
+        
+        val highlightingVisitor = KotlinSemanticHighlightingVisitor(ktFile, 
+                result.analysisResult.analysisResult, { cancel })
+        val units = hashMapOf<UnitKey, Map<OffsetRange, Set<ColoringAttributes>>>()
+        val fileHighlighting = hashMapOf<OffsetRange, Set<ColoringAttributes>>()
+        val pending = arrayListOf<HighlightingUnit>()
+        
+        for (unit in collectUnits(ktFile)) {
+            if (cancel) return
+            
+            val key = unit.key
+            val range = unit.element.textRange
+            val ranges = units[key] ?: cached[key] ?: if (viewport == null || viewport.intersects(range)) {
+                computeRelativeRanges(highlightingVisitor, unit)
+            } else {
+                pending.add(unit)
+                continue
+            }
+            units[key] = ranges
+            ranges.forEach { fileHighlighting[it.key.shift(range.startOffset)] = it.value }
+        }
+        
+        if (cancel) return
+        
+        addToCache(path, resolutionInputs, units, true)
+        highlighting.putAll(fileHighlighting)
+        
+        val file = result.snapshot.source.fileObject
+        if (pending.isNotEmpty() && file != null) {
+            val background = BackgroundHighlighting(path, file, resolutionInputs, 
+                    KotlinSemanticHighlightingVisitor(ktFile, result.analysisResult.analysisResult), pending)
+            backgroundHighlighting = background
+            RP.post(background, 0, Thread.MIN_PRIORITY)
+        }
+    }
+    
+    private fun collectUnits(ktFile: KtFile): List<HighlightingUnit> {
+        val units = arrayListOf<HighlightingUnit>()
+        generateSequence(ktFile.firstChild) { it.nextSibling }.forEach { collectUnits(it, units) }
+        
+        return units
+    }
+    
+    private fun collectUnits(element: PsiElement, units: MutableList<HighlightingUnit>) {
+        val body = (element as? KtClassOrObject)?.getBody()
+        if (body == null || element.textLength <= MAX_UNIT_CHARS) {
+            units.add(HighlightingUnit(element, false))
+            return
+        }
+        
+        units.add(HighlightingUnit(element, true))
+        body.declarations.forEach { collectUnits(it, units) }
+    }
+    
+    /**
+     * Returns the range of the snapshot shown in an editor, extended by a margin of lines.
+     * The visible range is captured on the event dispatch thread by [KotlinVisibleRanges].
+     */
+    private fun findViewport(result: KotlinParserResult): TextRange? {
+        val document = result.snapshot.source.getDocument(false) ?: return null
+        val visible = KotlinVisibleRanges.getVisibleRange(document) ?: return null
+        
+        val text = result.snapshot.text
+        val firstLine = StringUtil.offsetToLineNumber(text, Math.min(visible.startOffset, text.length))
+        val lastLine = StringUtil.offsetToLineNumber(text, Math.min(visible.endOffset, text.length))
+        if (firstLine < 0 || lastLine < 0) return null
+        
+        val start = StringUtil.lineColToOffset(text, Math.max(0, firstLine - VIEWPORT_MARGIN_LINES), 0)
+        if (start < 0) return null
+        val end = StringUtil.lineColToOffset(text, lastLine + VIEWPORT_MARGIN_LINES, 0)
+        
+        return TextRange(start, if (end < 0) text.length else end)
     }
 
     override fun cancel() {
@@ -47,4 +180,58 @@ class KotlinSemanticAnalyzer : SemanticAnalyzer<KotlinParserResult>() {
 
     override fun getSchedulerClass() = Scheduler.EDITOR_SENSITIVE_TASK_SCHEDULER
 
-}
\ No newline at end of file
+    companion object {
+        private const val MAX_FILES = 16
+        private const val MAX_UNIT_CHARS = 10000
+        private const val VIEWPORT_MARGIN_LINES = 100
+        private val VIEWPORT_THRESHOLD = Integer.getInteger("kotlin.highlighting.viewport.chars", 100000)
+        
+        private val RP = RequestProcessor("Kotlin semantic highlighting", 1, true)
+        
+        private val files = object : LinkedHashMap<String, FileHighlighting>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, FileHighlighting>?) = 
+                    size > MAX_FILES
+        }
+        
+        // number of units highlighted by the visitor, for tests
+        private val computedUnits = AtomicLong()
+        
+        @JvmStatic
+        fun getComputedUnitCount() = computedUnits.get()
+        
+        private fun getCached(path: String, resolutionInputs: Any) = synchronized(files) {
+            files[path]?.let { if (it.resolutionInputs === resolutionInputs) it.units else null } ?: emptyMap()
+        }
+        
+        /**
+         * Adds ranges of the units to the cache of the file. Ranges computed for other resolution
+         * inputs are replaced if [replace] is set, otherwise the units are dropped and false 
+         * is returned, as the highlighting is outdated.
+         */
+        private fun addToCache(path: String, resolutionInputs: Any, 
+                               units: Map<UnitKey, Map<OffsetRange, Set<ColoringAttributes>>>, 
+                               replace: Boolean) = synchronized(files) {
+            val current = files[path]
+            when {
+                current != null && current.resolutionInputs === resolutionInputs -> {
+                    files[path] = FileHighlighting(resolutionInputs, current.units + units)
+                    true
+                }
+                current == null || replace -> {
+                    files[path] = FileHighlighting(resolutionInputs, units)
+                    true
+                }
+                else -> false
+            }
+        }
+        
+        private fun computeRelativeRanges(visitor: KotlinSemanticHighlightingVisitor, 
+                                          unit: HighlightingUnit): Map<OffsetRange, Set<ColoringAttributes>> {
+            computedUnits.incrementAndGet()
+            return visitor.computeHighlightingRanges(unit.element, unit.skipMembers)
+                    .mapKeys { it.key.shift(-unit.element.textRange.startOffset) }
+        }
+        
+        private fun OffsetRange.shift(delta: Int) = OffsetRange(start + delta, end + delta)
+    }
+}
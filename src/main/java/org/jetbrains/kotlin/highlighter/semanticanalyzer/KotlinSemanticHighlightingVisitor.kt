@@ -29,7 +29,9 @@ import org.jetbrains.kotlin.descriptors.ValueParameterDescriptor
 import org.jetbrains.kotlin.descriptors.VariableDescriptor
 import org.jetbrains.kotlin.descriptors.impl.LocalVariableDescriptor
 import org.jetbrains.kotlin.psi.KtAnnotationEntry
+import org.jetbrains.kotlin.psi.KtClassBody
 import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtDeclaration
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.psi.KtNamedDeclaration
 import org.jetbrains.kotlin.psi.KtNamedFunction
@@ -41,19 +43,19 @@ import org.jetbrains.kotlin.psi.KtThisExpression
 import org.jetbrains.kotlin.psi.KtTypeParameter
 import org.jetbrains.kotlin.psi.KtValueArgumentList
 import org.jetbrains.kotlin.psi.KtVisitorVoid
-import org.jetbrains.kotlin.renderer.DescriptorRenderer
 import org.jetbrains.kotlin.resolve.BindingContext
-import org.jetbrains.kotlin.types.KotlinType
 import org.netbeans.modules.csl.api.ColoringAttributes
 import org.netbeans.modules.csl.api.OffsetRange
 import org.jetbrains.kotlin.resolve.DescriptorUtils
 import org.jetbrains.kotlin.descriptors.ClassKind
 
 class KotlinSemanticHighlightingVisitor(val ktFile: KtFile,
-                                        val result: AnalysisResult) : KtVisitorVoid() {
+                                        val result: AnalysisResult,
+                                        val isCancelled: () -> Boolean = { false }) : KtVisitorVoid() {
 
     private lateinit var bindingContext: BindingContext
     private val positions = hashMapOf<OffsetRange, Set<ColoringAttributes>>()
+    private var skippedBody: KtClassBody? = null
 
     fun computeHighlightingRanges(): Map<OffsetRange, Set<ColoringAttributes>> {
         positions.clear()
@@ -63,16 +65,38 @@ class KotlinSemanticHighlightingVisitor(val ktFile: KtFile,
         return positions
     }
 
+    /**
+     * Computes highlighting of a single element of the file. With [skipMembers] the declarations
+     * in the body of the class [element] are left out. The traversal stops early when 
+     * [isCancelled] returns true, the ranges are incomplete then.
+     */
+    fun computeHighlightingRanges(element: PsiElement, 
+                                  skipMembers: Boolean = false): Map<OffsetRange, Set<ColoringAttributes>> {
+        positions.clear()
+        bindingContext = result.bindingContext
+        skippedBody = if (skipMembers) (element as KtClassOrObject).getBody() else null
+        element.accept(this)
+
+        return positions
+    }
+
     private fun highlight(styleAttributes: KotlinHighlightingAttributes, range: TextRange) {
         val offsetRange = OffsetRange(range.startOffset, range.endOffset)
-        positions.put(offsetRange, hashSetOf(styleAttributes.styleKey))
+        positions.put(offsetRange, styleAttributes.styleKeys)
     }
 
-    private fun highlightSmartCast(range: TextRange, typeName: String) {
+    override fun visitElement(element: PsiElement) {
+        if (isCancelled()) return
+        
+        if (element === skippedBody) {
+            generateSequence(element.firstChild) { it.nextSibling }
+                    .filter { it !is KtDeclaration }
+                    .forEach { it.accept(this) }
+        } else {
+            element.acceptChildren(this)
+        }
     }
 
-    override fun visitElement(element: PsiElement) = element.acceptChildren(this)
-
     override fun visitSimpleNameExpression(expression: KtSimpleNameExpression) {
         val parentExpression = expression.parent
         if (parentExpression is KtThisExpression || parentExpression is KtSuperExpression) return
@@ -81,14 +105,11 @@ class KotlinSemanticHighlightingVisitor(val ktFile: KtFile,
             if (it is ConstructorDescriptor) it.getContainingDeclaration() else it
         } ?: return
 
-        val smartCast = bindingContext.get(BindingContext.SMARTCAST, expression)
-        val typeName = smartCast?.let { DescriptorRenderer.FQ_NAMES_IN_TYPES.renderType(smartCast) } ?: null
-
         when (target) {
             is TypeParameterDescriptor -> highlightTypeParameter(expression)
             is ClassDescriptor -> highlightClassDescriptor(expression, target)
-            is PropertyDescriptor -> highlightProperty(expression, target, typeName)
-            is VariableDescriptor -> highlightVariable(expression, target, typeName)
+            is PropertyDescriptor -> highlightProperty(expression, target)
+            is VariableDescriptor -> highlightVariable(expression, target)
         }
         super.visitSimpleNameExpression(expression)
     }
@@ -176,7 +197,7 @@ class KotlinSemanticHighlightingVisitor(val ktFile: KtFile,
         else -> {}
     }
 
-    private fun highlightProperty(element: PsiElement, descriptor: PropertyDescriptor, typeName: String? = null) {
+    private fun highlightProperty(element: PsiElement, descriptor: PropertyDescriptor) {
         val range = element.textRange
         val mutable = descriptor.isVar
         val attributes = if (DescriptorUtils.isStaticDeclaration(descriptor)) {
@@ -184,11 +205,10 @@ class KotlinSemanticHighlightingVisitor(val ktFile: KtFile,
         } else {
             if (mutable) KotlinHighlightingAttributes.FIELD else KotlinHighlightingAttributes.FINAL_FIELD
         }
-        if (typeName != null) highlightSmartCast(element.textRange, typeName)
         highlight(attributes, range)
     }
 
-    private fun highlightVariable(element: PsiElement, descriptor: DeclarationDescriptor, typeName: String? = null) {
+    private fun highlightVariable(element: PsiElement, descriptor: DeclarationDescriptor) {
         if (descriptor !is VariableDescriptor) return
 
         val attributes = when (descriptor) {
@@ -204,7 +224,6 @@ class KotlinSemanticHighlightingVisitor(val ktFile: KtFile,
 
             else -> KotlinHighlightingAttributes.LOCAL_VARIABLE
         }
-        if (typeName != null) highlightSmartCast(element.textRange, typeName)
         highlight(attributes, element.textRange)
     }
 
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.highlighter.semanticanalyzer
+
+import com.intellij.openapi.util.TextRange
+import java.awt.Point
+import java.beans.PropertyChangeEvent
+import java.util.WeakHashMap
+import javax.swing.JViewport
+import javax.swing.SwingUtilities
+import javax.swing.event.ChangeEvent
+import javax.swing.event.ChangeListener
+import javax.swing.text.Document
+import javax.swing.text.JTextComponent
+import org.netbeans.api.editor.EditorRegistry
+
+/**
+ * Ranges of documents visible in editors. Swing state is read on the event dispatch thread
+ * only: a change listener of the editor viewport stores the visible offsets of the document 
+ * whenever the editor scrolls or resizes, and highlighting tasks read the last stored range.
+ */
+object KotlinVisibleRanges {
+
+    private const val VISIBLE_RANGE = "kotlin-visible-range"
+
+    private class ViewportListener(val component: JTextComponent, val viewport: JViewport) : ChangeListener {
+        override fun stateChanged(e: ChangeEvent?) = update(component)
+    }
+
+    // accessed on the event dispatch thread only
+    private val listeners = WeakHashMap<JTextComponent, ViewportListener>()
+
+    init {
+        EditorRegistry.addPropertyChangeListener { event: PropertyChangeEvent ->
+            when (event.propertyName) {
+                EditorRegistry.FOCUS_GAINED_PROPERTY -> (event.newValue as? JTextComponent)?.let { attach(it) }
+                EditorRegistry.COMPONENT_REMOVED_PROPERTY -> (event.oldValue as? JTextComponent)?.let { detach(it) }
+            }
+        }
+        SwingUtilities.invokeLater { EditorRegistry.componentList().forEach { attach(it) } }
+    }
+
+    /**
+     * Returns the last visible range of the document, or null if it is not shown in an editor.
+     * The offsets may be outdated by later edits of the document.
+     */
+    fun getVisibleRange(document: Document) = document.getProperty(VISIBLE_RANGE) as? TextRange
+
+    private fun attach(component: JTextComponent) {
+        if (listeners.containsKey(component)) return
+        val viewport = SwingUtilities.getAncestorOfClass(JViewport::class.java, component) as? JViewport ?: return
+
+        val listener = ViewportListener(component, viewport)
+        viewport.addChangeListener(listener)
+        listeners[component] = listener
+        update(component)
+    }
+
+    private fun detach(component: JTextComponent) {
+        val listener = listeners.remove(component) ?: return
+        listener.viewport.removeChangeListener(listener)
+        component.document.putProperty(VISIBLE_RANGE, null)
+    }
+
+    private fun update(component: JTextComponent) {
+        val visible = component.visibleRect
+        val start = component.viewToModel(Point(visible.x, visible.y))
+        val end = component.viewToModel(Point(visible.x + visible.width, visible.y + visible.height))
+        if (start < 0 || end < start) return
+
+        // document properties are synchronized, so the range is safely read by other threads
+        component.document.putProperty(VISIBLE_RANGE, TextRange(start, end))
+    }
+}
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.highlighter.semanticanalyzer
+
+import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.renderer.DescriptorRenderer
+import org.jetbrains.kotlin.resolve.BindingContext
+
+/**
+ * Returns the type [expression] was smart cast to, rendered with fully qualified names, or
+ * null if it was not smart cast. Semantic highlighting does not look up smart casts, the type
+ * is rendered only when a tooltip of the reference is requested.
+ */
+fun getSmartCastTypeName(expression: KtExpression, bindingContext: BindingContext): String? =
+        bindingContext[BindingContext.SMARTCAST, expression]?.let { DescriptorRenderer.FQ_NAMES_IN_TYPES.renderType(it) }
@@ -31,7 +31,6 @@ import org.jetbrains.kotlin.psi.KtFunction
 import org.jetbrains.kotlin.psi.KtReturnExpression
 import org.jetbrains.kotlin.resolve.BindingContext
 import org.jetbrains.kotlin.resolve.bindingContextUtil.getTargetFunction
-import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
 import org.jetbrains.kotlin.types.KotlinType
 import org.jetbrains.kotlin.types.typeUtil.makeNullable
 import org.jetbrains.kotlin.descriptors.ClassDescriptorWithResolutionScopes
@@ -55,7 +54,7 @@ class KotlinChangeReturnTypeProposal(val parserResult: KotlinParserResult,
     override fun isApplicable(caretOffset: Int): Boolean {
         val bindingContext = parserResult.analysisResult.analysisResult.bindingContext
         
-        val activeDiagnostic = getActiveDiagnostic(psi.textOffset, bindingContext.diagnostics)
+        val activeDiagnostic = getActiveDiagnostic(psi.textOffset, parserResult.analysisResult.getDiagnostics(parserResult.ktFile))
         if (activeDiagnostic == null) return false
         
         val expression = PsiTreeUtil.getNonStrictParentOfType(activeDiagnostic.psiElement, KtExpression::class.java)
@@ -112,7 +111,7 @@ class KotlinChangeReturnTypeProposal(val parserResult: KotlinParserResult,
         }
     }
 
-    private fun getActiveDiagnostic(offset: Int, diagnostics: Diagnostics): Diagnostic? {
+    private fun getActiveDiagnostic(offset: Int, diagnostics: List<Diagnostic>): Diagnostic? {
         return diagnostics.find { diagnostic ->
             if (diagnostic.textRanges.isEmpty()) return@find false
 
@@ -20,14 +20,13 @@ import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiErrorElement
 import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParser
 import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinError
-import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinSyntaxError
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinSyntaxErrors
 import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParserResult
 import org.jetbrains.kotlin.resolve.AnalysisResultWithProvider
 import org.jetbrains.kotlin.utils.ProjectUtils
 import org.jetbrains.kotlin.diagnostics.Diagnostic
 import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
 import org.jetbrains.kotlin.diagnostics.DiagnosticFactory
-import org.jetbrains.kotlin.resolve.AnalyzingUtils
 import org.jetbrains.kotlin.resolve.lang.java.*
 import org.netbeans.modules.csl.api.Error
 import org.netbeans.modules.csl.api.Hint
@@ -110,17 +109,14 @@ class KotlinHintsProvider : HintsProvider {
                 OffsetRange(this.startPosition, this.endPosition), listOf(fix), 10)
     }
 
+    /**
+     * Reports semantic diagnostics only. Syntax errors are published by [KotlinParser]
+     * to [KotlinSyntaxErrors.LAYER] as soon as the file is parsed.
+     */
     override fun computeErrors(hintsManager: HintsManager, ruleContext: RuleContext,
                                list: List<Hint>, errors: MutableList<Error>) {
         val parserResult = ruleContext.parserResult as KotlinParserResult
-        val file = parserResult.snapshot.source.fileObject
-
-        val analysisResult = parserResult.analysisResult ?: return
-        errors.addAll(analysisResult.analysisResult.bindingContext.diagnostics.all()
-                .filter { it.psiFile.virtualFile.path == file.path }
-                .map { KotlinError(it, file) })
-        errors.addAll(AnalyzingUtils.getSyntaxErrorRanges(parserResult.ktFile)
-                .map { KotlinSyntaxError(it, file) })
+        errors.addAll(parserResult.getSemanticErrors())
     }
 
 }
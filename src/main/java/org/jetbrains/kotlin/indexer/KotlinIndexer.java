@@ -18,11 +18,8 @@
  */
 package org.jetbrains.kotlin.indexer;
 
-import org.jetbrains.kotlin.analyzer.AnalysisResult;
 import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParserResult;
-import org.jetbrains.kotlin.filesystem.lightclasses.KotlinLightClassGeneration;
 import org.jetbrains.kotlin.resolve.AnalysisResultWithProvider;
-import org.netbeans.api.project.Project;
 import org.netbeans.modules.parsing.spi.Parser;
 import org.netbeans.modules.parsing.spi.indexing.Context;
 import org.netbeans.modules.parsing.spi.indexing.EmbeddingIndexer;
@@ -35,32 +32,17 @@ import org.openide.filesystems.FileObject;
  */
 public class KotlinIndexer extends EmbeddingIndexer {
 
-    private static final Object LOCK = new Object(){};
-    
     @Override
     protected void index(Indexable indexable, Parser.Result parserResult, Context context) {
-        final KotlinParserResult result = (KotlinParserResult) parserResult;
+        KotlinParserResult result = (KotlinParserResult) parserResult;
         AnalysisResultWithProvider analysisResult = result.getAnalysisResult();
         
         if (analysisResult == null) {
             return;
         }
         
-        final FileObject fo = result.getSnapshot().getSource().getFileObject();
-        final AnalysisResult res = analysisResult.getAnalysisResult();
-        Thread thread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                generateLightClass(fo, result.getProject(), res);
-            }
-        });
-        thread.start();
-    }
-    
-    private void generateLightClass(FileObject fo, Project project, AnalysisResult analysisResult) {
-        synchronized (LOCK) {
-            KotlinLightClassGeneration.INSTANCE.generate(fo, project, analysisResult);
-        }
+        FileObject fo = result.getSnapshot().getSource().getFileObject();
+        LightClassGenerationQueue.INSTANCE.submit(fo, result.getKtFile(), result.getProject());
     }
     
 }
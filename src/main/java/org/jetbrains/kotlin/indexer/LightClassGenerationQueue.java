@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.indexer;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.Computable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.builder.KotlinPsiManager;
+import org.jetbrains.kotlin.filesystem.lightclasses.KotlinLightClassGeneration;
+import org.jetbrains.kotlin.name.FqName;
+import org.jetbrains.kotlin.psi.KtFile;
+import org.jetbrains.kotlin.resolve.CancellableAnalysis;
+import org.jetbrains.kotlin.resolve.KotlinAnalyzer;
+import org.jetbrains.kotlin.utils.ProjectUtils;
+import org.netbeans.api.project.Project;
+import org.openide.filesystems.FileObject;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Queue of light class generation jobs. Jobs of one project run one at a time,
+ * jobs of different projects run in parallel on a bounded number of threads, which
+ * can be changed with {@code -Dkotlin.lightclasses.threads}. A job submitted for a file
+ * replaces the pending job of the same file and cancels the running one. Pending jobs 
+ * of files in the same package are analyzed and generated together.
+ */
+public class LightClassGenerationQueue {
+
+    private static final int THREADS = Integer.getInteger("kotlin.lightclasses.threads",
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+
+    // files of a package are analyzed and generated in batches of this size
+    private static final int MAX_BATCH = 64;
+
+    public static final LightClassGenerationQueue INSTANCE = new LightClassGenerationQueue(
+            new RequestProcessor("Kotlin light classes generation", THREADS));
+
+    private final Executor executor;
+
+    // guarded by this; a project has an entry while its jobs are pending or running
+    private final Map<Project, LinkedHashMap<FileObject, Job>> pending = new HashMap<>();
+    private int queueDepth = 0;
+
+    private final ConcurrentMap<FileObject, ProgressIndicator> running = new ConcurrentHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong generationNanos = new AtomicLong();
+
+    /**
+     * Creates a queue which runs its jobs on {@code executor}. The IDE uses {@link #INSTANCE}, 
+     * tests create queues with an executor they run themselves.
+     */
+    public LightClassGenerationQueue(@NotNull Executor executor) {
+        this.executor = executor;
+    }
+
+    public void submit(@NotNull FileObject file, @NotNull KtFile ktFile, @NotNull Project project) {
+        submitted.incrementAndGet();
+        ProgressIndicator runningIndicator = running.get(file);
+        if (runningIndicator != null) {
+            runningIndicator.cancel();
+        }
+
+        boolean schedule = false;
+        synchronized (this) {
+            LinkedHashMap<FileObject, Job> jobs = pending.get(project);
+            if (jobs == null) {
+                jobs = new LinkedHashMap<>();
+                pending.put(project, jobs);
+                schedule = true;
+            }
+
+            if (jobs.put(file, new Job(file, ktFile)) != null) {
+                coalesced.incrementAndGet();
+            } else {
+                queueDepth++;
+            }
+        }
+
+        if (schedule) {
+            executor.execute(new ProjectJobs(project));
+        }
+    }
+
+    /**
+     * Submits every source file of the project. Light classes are kept in memory and 
+     * the indexer only reindexes the files changed since the last session, so they are 
+     * generated again when the project is opened.
+     */
+    public void submitProject(@NotNull Project project) {
+        for (FileObject file : KotlinPsiManager.INSTANCE.getFilesByProject(project)) {
+            KtFile ktFile = ProjectUtils.getKtFile(file);
+            if (ktFile != null) {
+                submit(file, ktFile, project);
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest pending job of the project together with the pending jobs 
+     * of the same package, so that they are analyzed and generated in one batch.
+     */
+    private synchronized List<Job> poll(Project project) {
+        LinkedHashMap<FileObject, Job> jobs = pending.get(project);
+        Iterator<Job> iterator = jobs.values().iterator();
+        Job first = iterator.next();
+        iterator.remove();
+
+        List<Job> batch = new ArrayList<>();
+        batch.add(first);
+        while (iterator.hasNext() && batch.size() < MAX_BATCH) {
+            Job job = iterator.next();
+            if (job.packageName.equals(first.packageName)) {
+                batch.add(job);
+                iterator.remove();
+            }
+        }
+        queueDepth -= batch.size();
+
+        return batch;
+    }
+
+    /**
+     * Puts back the jobs of a cancelled batch unless newer jobs of their files are pending.
+     * @return the number of jobs put back
+     */
+    private synchronized int requeue(Project project, List<Job> batch) {
+        LinkedHashMap<FileObject, Job> jobs = pending.get(project);
+        int requeued = 0;
+        for (Job job : batch) {
+            if (!jobs.containsKey(job.file)) {
+                jobs.put(job.file, job);
+                requeued++;
+            }
+        }
+        queueDepth += requeued;
+
+        return requeued;
+    }
+
+    /**
+     * Removes the project when its queue is drained.
+     * @return true if the project has more pending jobs
+     */
+    private synchronized boolean hasPendingJobs(Project project) {
+        if (pending.get(project).isEmpty()) {
+            pending.remove(project);
+            return false;
+        }
+
+        return true;
+    }
+
+    private void generate(final Project project, List<Job> batch) {
+        ProgressIndicator indicator = new EmptyProgressIndicator();
+        final Map<FileObject, KtFile> files = new LinkedHashMap<>();
+        for (Job job : batch) {
+            files.put(job.file, job.ktFile);
+            running.put(job.file, indicator);
+        }
+
+        long start = System.nanoTime();
+        try {
+            CancellableAnalysis.run(indicator, new Computable<Void>() {
+                @Override
+                public Void compute() {
+                    AnalysisResult analysisResult = 
+                            KotlinAnalyzer.analyzeFiles(project, files.values()).getAnalysisResult();
+                    KotlinLightClassGeneration.INSTANCE.generate(files, project, analysisResult);
+                    return null;
+                }
+            });
+            batches.incrementAndGet();
+            completed.addAndGet(batch.size());
+        } catch (ProcessCanceledException ex) {
+            // a newer request for one of the files was submitted
+            cancelled.addAndGet(batch.size() - requeue(project, batch));
+        } finally {
+            for (Job job : batch) {
+                running.remove(job.file, indicator);
+            }
+            generationNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs one batch of the project and reposts itself while there are more jobs,
+     * so that projects with many files don't starve the others.
+     */
+    private class ProjectJobs implements Runnable {
+
+        private final Project project;
+
+        ProjectJobs(Project project) {
+            this.project = project;
+        }
+
+        @Override
+        public void run() {
+            try {
+                generate(project, poll(project));
+            } finally {
+                if (hasPendingJobs(project)) {
+                    executor.execute(this);
+                }
+            }
+        }
+
+    }
+
+    private static class Job {
+
+        private final FileObject file;
+        private final KtFile ktFile;
+        private final FqName packageName;
+
+        Job(FileObject file, KtFile ktFile) {
+            this.file = file;
+            this.ktFile = ktFile;
+            this.packageName = ktFile.getPackageFqName();
+        }
+
+    }
+
+    public synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Number of jobs which were replaced by a newer job of the same file before they started.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Number of codegen runs, each of them generates a batch of jobs.
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    public long getGenerationTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(generationNanos.get());
+    }
+
+}
@@ -42,7 +42,6 @@ import org.netbeans.modules.parsing.spi.indexing.EmbeddingIndexerFactory;
 @LanguageRegistration(mimeType = "text/x-kt")
 public class KotlinLanguage extends DefaultLanguageConfig {
 
-    private final Parser kotlinParser = new KotlinParser();
     private final SemanticAnalyzer kotlinSemanticAnalyzer = 
             new KotlinSemanticAnalyzer();
     private final StructureScanner kotlinStructureScanner = 
@@ -64,9 +63,12 @@ public class KotlinLanguage extends DefaultLanguageConfig {
         return "KT";
     }
 
+    /**
+     * A parser keeps the state of the last parsed snapshot, so every source gets its own.
+     */
     @Override
     public Parser getParser(){
-        return kotlinParser;
+        return new KotlinParser();
     }
 
     @Override
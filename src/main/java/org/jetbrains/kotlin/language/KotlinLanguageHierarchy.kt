@@ -39,7 +39,8 @@ class KotlinLanguageHierarchy() : LanguageHierarchy<KotlinTokenId>() {
                 KotlinTokenId(TokenType.KDOC_LINK.name,TokenType.KDOC_LINK.name,9)
         )
         
-        fun getToken(id: Int) = tokens.filter{ it.ordinal() == id }.first()
+        // ids are positions in the list
+        fun getToken(id: Int) = tokens[id]
     }
     
     override fun createTokenIds() = tokens
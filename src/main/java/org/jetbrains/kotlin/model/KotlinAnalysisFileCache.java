@@ -16,29 +16,44 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.model;
 
-import com.google.common.collect.Lists;
-import kotlin.jvm.Synchronized;
-import kotlin.jvm.Volatile;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinAnalysisProjectCache;
 import org.jetbrains.kotlin.resolve.AnalysisResultWithProvider;
-import org.jetbrains.kotlin.resolve.NetBeansAnalyzerFacadeForJVM;
 import org.jetbrains.kotlin.psi.KtFile;
 import org.netbeans.api.project.Project;
 
-
+/**
+ * LRU cache of file analysis results keyed by file path. A result is returned only
+ * for the same text which was analyzed.
+ * The cache is bounded both by the number of entries and by the estimated heap
+ * size of the results. The limits can be changed with
+ * {@code -Dkotlin.analysis.cache.entries} and {@code -Dkotlin.analysis.cache.mb}.
+ */
 public class KotlinAnalysisFileCache {
-    
+
+    private static final int MAX_ENTRIES = Integer.getInteger("kotlin.analysis.cache.entries", 32);
+    private static final int MAX_MEGABYTES = Integer.getInteger("kotlin.analysis.cache.mb", 128);
+    // rough retained size of a binding context per character of analyzed source
+    private static final long ESTIMATED_BYTES_PER_CHAR = 256;
+
     class FileAnalysisResults{
         
-        private final KtFile file;
+        private final String text;
+        private final long estimatedSize;
         private final AnalysisResultWithProvider analysisResult;
         
-        public FileAnalysisResults(KtFile file, AnalysisResultWithProvider analysisResult){
-            this.file = file;
+        public FileAnalysisResults(String text, AnalysisResultWithProvider analysisResult){
+            this.text = text;
+            this.estimatedSize = text.length() * ESTIMATED_BYTES_PER_CHAR;
             this.analysisResult = analysisResult;
         }
         
-        public KtFile getFile(){
-            return file;
+        public String getText(){
+            return text;
         }
         
         public AnalysisResultWithProvider getAnalysisResult(){
@@ -48,25 +63,82 @@ public class KotlinAnalysisFileCache {
     }
     
     public static KotlinAnalysisFileCache INSTANCE = new KotlinAnalysisFileCache();
-    private @Volatile FileAnalysisResults lastAnalysedFileCache = null;
-    
+
+    private final LinkedHashMap<String, FileAnalysisResults> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxSize = MAX_MEGABYTES * 1024L * 1024L;
+    private long currentSize = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
     private KotlinAnalysisFileCache(){}
-    
-    public @Synchronized AnalysisResultWithProvider getAnalysisResult(KtFile file, Project project){
-        if (lastAnalysedFileCache != null && lastAnalysedFileCache.getFile() == file){
-            return lastAnalysedFileCache.getAnalysisResult();
-        } else {
-            KotlinEnvironment kotlinEnvironment = KotlinEnvironment.getEnvironment(project);
-            AnalysisResultWithProvider analysisResult = 
-                    NetBeansAnalyzerFacadeForJVM.INSTANCE.analyzeFilesWithJavaIntegration(
-                            project, kotlinEnvironment.getProject(), Lists.newArrayList(file));
-            lastAnalysedFileCache = new FileAnalysisResults(file, analysisResult);
-            return lastAnalysedFileCache.getAnalysisResult();
+
+    public AnalysisResultWithProvider getAnalysisResult(KtFile file, Project project){
+        String path = file.getVirtualFile().getPath();
+        String text = file.getText();
+
+        synchronized (this) {
+            FileAnalysisResults cached = cache.get(path);
+            if (cached != null && cached.getText().equals(text)) {
+                hits.incrementAndGet();
+                return cached.getAnalysisResult();
+            }
         }
+
+        misses.incrementAndGet();
+        AnalysisResultWithProvider analysisResult =
+                KotlinAnalysisProjectCache.INSTANCE.getAnalysisResult(project, file);
+        put(path, new FileAnalysisResults(text, analysisResult));
+
+        return analysisResult;
     }
-    
-    public void resetCache(){
-        lastAnalysedFileCache = null;
+
+    private synchronized void put(String path, FileAnalysisResults results) {
+        FileAnalysisResults previous = cache.put(path, results);
+        if (previous != null) {
+            currentSize -= previous.estimatedSize;
+        }
+        currentSize += results.estimatedSize;
+
+        Iterator<Map.Entry<String, FileAnalysisResults>> iterator = cache.entrySet().iterator();
+        while (iterator.hasNext() && cache.size() > 1
+                && (cache.size() > MAX_ENTRIES || currentSize > maxSize)) {
+            FileAnalysisResults eldest = iterator.next().getValue();
+            iterator.remove();
+            currentSize -= eldest.estimatedSize;
+            evictions.incrementAndGet();
+        }
     }
-    
+
+    public synchronized void resetCache(){
+        cache.clear();
+        currentSize = 0;
+    }
+
+    public synchronized void resetCache(Collection<String> paths){
+        for (String path : paths) {
+            FileAnalysisResults removed = cache.remove(path);
+            if (removed != null) {
+                currentSize -= removed.estimatedSize;
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
 }
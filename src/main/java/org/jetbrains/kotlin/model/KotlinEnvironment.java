@@ -66,6 +66,7 @@ import org.jetbrains.kotlin.filesystem.KotlinLightClassManager;
 import org.jetbrains.kotlin.projectsextensions.KotlinProjectHelper;
 import org.jetbrains.kotlin.resolve.BuiltInsReferenceResolver;
 import org.jetbrains.kotlin.resolve.KotlinCacheServiceImpl;
+import org.jetbrains.kotlin.resolve.KotlinResolutionContext;
 import org.jetbrains.kotlin.resolve.KotlinSourceIndex;
 import org.jetbrains.kotlin.utils.ProjectUtils;
 import org.jetbrains.kotlin.caches.resolve.KotlinCacheService;
@@ -135,6 +136,7 @@ public class KotlinEnvironment {
         project.registerService(KotlinLightClassManager.class, new KotlinLightClassManager(kotlinProject));
         project.registerService(BuiltInsReferenceResolver.class, new BuiltInsReferenceResolver(project));
         project.registerService(KotlinSourceIndex.class, new KotlinSourceIndex());
+        project.registerService(KotlinResolutionContext.class, new KotlinResolutionContext(kotlinProject));
         project.registerService(KotlinCacheService.class, new KotlinCacheServiceImpl(project, kotlinProject));
         
         configureClasspath(kotlinProject);
@@ -74,9 +74,9 @@ public class NavigationUtil {
     
     @Nullable
     public static KtReferenceExpression getReferenceExpression(Document doc, int offset) throws BadLocationException{
-        KtFile ktFile = KotlinParser.getFile();
         FileObject fo = ProjectUtils.getFileObjectForDocument(doc);
-        if (ktFile == null || !ktFile.getName().equals(fo.getName())){
+        KtFile ktFile = KotlinParser.getFile(fo);
+        if (ktFile == null){
             ktFile = KotlinPsiManager.INSTANCE.parseText(doc.getText(0, doc.getLength()), fo);
         }
         if (ktFile == null) {
@@ -37,6 +37,7 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.descriptors.DeclarationDescriptor;
 import org.jetbrains.kotlin.descriptors.SourceElement;
 import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParser;
+import org.jetbrains.kotlin.highlighter.semanticanalyzer.SmartCastsKt;
 import org.jetbrains.kotlin.load.java.structure.JavaElement;
 import org.jetbrains.kotlin.load.kotlin.JvmPackagePartSource;
 import org.jetbrains.kotlin.navigation.JarNavigationUtil;
@@ -135,6 +136,28 @@ public class KotlinHyperlinkProvider implements HyperlinkProviderExt {
             return "";
         }
 
+        String tooltip = getDeclarationTooltip(referenceExpression, project);
+        String smartCastType = getSmartCastType(referenceExpression);
+        if (smartCastType == null) {
+            return tooltip;
+        }
+        
+        return "Smart cast to " + smartCastType + (tooltip.isEmpty() ? "" : "\n" + tooltip);
+    }
+    
+    @Nullable
+    private static String getSmartCastType(KtReferenceExpression referenceExpression) {
+        AnalysisResultWithProvider analysisResult = 
+                KotlinParser.getAnalysisResult(referenceExpression.getContainingKtFile());
+        if (analysisResult == null) {
+            return null;
+        }
+        
+        return SmartCastsKt.getSmartCastTypeName(referenceExpression, 
+                analysisResult.getAnalysisResult().getBindingContext());
+    }
+    
+    private String getDeclarationTooltip(KtReferenceExpression referenceExpression, Project project) {
         NavigationData navigationData = getNavigationData(referenceExpression, project);
         if (navigationData == null) {
             return "";
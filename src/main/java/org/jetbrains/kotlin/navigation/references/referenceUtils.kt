@@ -46,6 +46,8 @@ import org.openide.filesystems.FileUtil
 import java.io.File
 import org.jetbrains.kotlin.utils.ProjectUtils
 import org.jetbrains.kotlin.resolve.KotlinAnalyzer
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParserResultStore
 
 inline private fun <reified T> ArrayList<KotlinReference>.register(e: KtElement, action: (T) -> KotlinReference) {
     if (e is T) this.add(action(e))
@@ -132,17 +134,40 @@ fun KtElement.resolveToSourceDeclaration(): List<SourceElement> {
     }
 }
 
+fun KtElement.resolveToSourceDeclaration(context: BindingContext, project: Project): List<SourceElement> {
+    if (this is KtDeclaration) return listOf(KotlinSourceElement(this))
+    
+    val referenceExpression = this.getReferenceExpression() ?: return emptyList()
+    return createReferences(referenceExpression).resolveToSourceElements(context, project)
+}
+
+fun KtFile.getKotlinProject(): Project? {
+    val path = virtualFile?.canonicalPath ?: return null
+    val file = FileUtil.toFileObject(File(path)) ?: return null
+    
+    return ProjectUtils.getKotlinProjectForFileObject(file)
+}
+
+/**
+ * Returns the binding context of the last editor parse if it was made for this PSI and
+ * the document was not edited since, otherwise analyzes the file.
+ */
+fun KtFile.getBindingContext(project: Project): BindingContext {
+    val entry = KotlinParserResultStore.INSTANCE.get(this)
+    if (entry != null && entry.ktFile === this && entry.isCurrent) {
+        return entry.analysisResult.analysisResult.bindingContext
+    }
+    
+    return KotlinAnalyzer.analyzeFile(project, this).analysisResult.bindingContext
+}
+
 fun List<KotlinReference>.resolveToSourceElements(): List<SourceElement> {
     if (isEmpty()) return emptyList()
     
     val ktFile = first().referenceExpression.getContainingKtFile()
-    val path = ktFile.virtualFile.canonicalPath
-    
-    val file = FileUtil.toFileObject(File(path)) ?: return emptyList()
-    val project = ProjectUtils.getKotlinProjectForFileObject(file) ?: return emptyList()
+    val project = ktFile.getKotlinProject() ?: return emptyList()
     
-    return this.resolveToSourceElements(
-            KotlinAnalyzer.analyzeFile(project, ktFile).analysisResult.bindingContext, project)
+    return this.resolveToSourceElements(ktFile.getBindingContext(project), project)
 }
 
 fun List<KotlinReference>.resolveToSourceElements(context: BindingContext, project: Project) = flatMap { it.getTargetDescriptors(context) }
@@ -69,11 +69,6 @@ public final class KotlinSources {
             }
         } else if (type != null) {
             switch (type) {
-                case KOTLIN_SOURCE:
-                    if (KotlinPsiManager.INSTANCE.isKotlinFile(fo)) {
-                        files.add(fo.getParent());
-                    }
-                    break;
                 case JAVA_SOURCE:
                     if (fo.hasExt("java")) {
                         files.add(fo.getParent());
@@ -110,6 +105,12 @@ public final class KotlinSources {
     @NotNull
     public List<FileObject> getSrcDirectories(KotlinProjectConstants type) {
         Set<FileObject> orderedFiles = Sets.newLinkedHashSet();
+        if (type == KotlinProjectConstants.KOTLIN_SOURCE) {
+            for (FileObject file : KotlinPsiManager.INSTANCE.getFilesByProject(kotlinProject)) {
+                orderedFiles.add(file.getParent());
+            }
+            return Lists.newArrayList(orderedFiles);
+        }
 
         FileObject srcDir = kotlinProject.getProjectDirectory().getFileObject("src");
         if (srcDir == null) {
@@ -122,17 +123,7 @@ public final class KotlinSources {
     }
 
     public List<FileObject> getAllKtFiles() {
-        List<FileObject> srcDirs = getSrcDirectories(KotlinProjectConstants.KOTLIN_SOURCE);
-        List<FileObject> ktFiles = new ArrayList<>();
-        for (FileObject srcDir : srcDirs) {
-            for (FileObject file : srcDir.getChildren()) {
-                if (!file.hasExt("kt")) {
-                    continue;
-                }
-                ktFiles.add(file);
-            }
-        }
-        return ktFiles;
+        return new ArrayList<>(KotlinPsiManager.INSTANCE.getFilesByProject(kotlinProject));
     }
 
     public SourceGroup[] getSourceGroups(String string) {
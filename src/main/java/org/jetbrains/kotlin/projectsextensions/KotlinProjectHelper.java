@@ -16,7 +16,6 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.projectsextensions;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import org.jetbrains.kotlin.model.KotlinEnvironment;
@@ -30,8 +29,6 @@ import org.netbeans.api.project.Project;
 import org.netbeans.spi.java.classpath.support.ClassPathSupport;
 import org.openide.filesystems.FileObject;
 import org.openide.filesystems.FileUtil;
-import org.openide.modules.Places;
-import org.openide.util.Exceptions;
 import org.openide.util.RequestProcessor;
 
 /**
@@ -100,20 +97,14 @@ public class KotlinProjectHelper {
         return lightClassesDirs.get(p);
     }
     
+    /**
+     * Light classes are kept in a memory filesystem. They are generated for all sources 
+     * when the project is opened and regenerated when sources are indexed, so writing 
+     * them to disk only made the Java indexer rescan them. The generation refreshes 
+     * the index of this root itself.
+     */
     private FileObject setLightClassesDir(Project project){
-        if (Places.getUserDirectory() == null){
-            return project.getProjectDirectory();
-        }
-        FileObject userDirectory = FileUtil.toFileObject(Places.getUserDirectory());
-        String projectName = project.getProjectDirectory().getName();
-        if (userDirectory.getFileObject(projectName) == null){
-            try {
-                userDirectory.createFolder(projectName);
-            } catch (IOException ex) {
-                Exceptions.printStackTrace(ex);
-            }
-        }
-        return userDirectory.getFileObject(projectName);
+        return FileUtil.createMemoryFileSystem().getRoot();
     }
     
     public ClassPathExtender getExtendedClassPath(Project project) {
@@ -18,7 +18,10 @@
  */
 package org.jetbrains.kotlin.projectsextensions.j2se;
 
+import org.jetbrains.kotlin.builder.KotlinParallelParser;
+import org.jetbrains.kotlin.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinAnalysisProjectCache;
+import org.jetbrains.kotlin.indexer.LightClassGenerationQueue;
 import org.jetbrains.kotlin.projectsextensions.j2se.buildextender.KotlinBuildExtender;
 import org.jetbrains.kotlin.model.KotlinEnvironment;
 import org.jetbrains.kotlin.projectsextensions.KotlinProjectHelper;
@@ -53,6 +56,8 @@ public class J2SEProjectOpenedHook extends ProjectOpenedHook {
                                 = ProgressHandleFactory.createHandle("Loading Kotlin environment");
                         progressbar.start();
                         KotlinEnvironment.getEnvironment(project);
+                        KotlinParallelParser.parseProjectFiles(project, progressbar);
+                        LightClassGenerationQueue.INSTANCE.submitProject(project);
                         progressbar.finish();
                     }
                 };
@@ -72,6 +77,7 @@ public class J2SEProjectOpenedHook extends ProjectOpenedHook {
     protected void projectClosed() {
         KotlinAnalysisProjectCache.INSTANCE.removeProjectCache(project);
         KotlinProjectHelper.INSTANCE.removeProjectCache(project);
+        KotlinPsiManager.INSTANCE.removeProject(project);
     }
 
 }
@@ -19,7 +19,10 @@ package org.jetbrains.kotlin.projectsextensions.maven;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.lang.reflect.Method;
+import org.jetbrains.kotlin.builder.KotlinParallelParser;
+import org.jetbrains.kotlin.builder.KotlinPsiManager;
 import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinAnalysisProjectCache;
+import org.jetbrains.kotlin.indexer.LightClassGenerationQueue;
 import org.jetbrains.kotlin.model.KotlinEnvironment;
 import org.jetbrains.kotlin.projectsextensions.KotlinProjectHelper;
 import org.jetbrains.kotlin.utils.ProjectUtils;
@@ -57,6 +60,8 @@ public class MavenProjectOpenedHook extends ProjectOpenedHook{
                                     ProgressHandleFactory.createHandle("Loading Kotlin environment");
                                 progressbar.start();
                                 KotlinEnvironment.getEnvironment(project);
+                                KotlinParallelParser.parseProjectFiles(project, progressbar);
+                                LightClassGenerationQueue.INSTANCE.submitProject(project);
                                 progressbar.finish();
                                 progressHandleRun = false;
                             }
@@ -97,6 +102,7 @@ public class MavenProjectOpenedHook extends ProjectOpenedHook{
     protected void projectClosed() {
         KotlinAnalysisProjectCache.INSTANCE.removeProjectCache(project);
         KotlinProjectHelper.INSTANCE.removeProjectCache(project);
+        KotlinPsiManager.INSTANCE.removeProject(project);
     }
     
 }
@@ -24,6 +24,7 @@ import com.intellij.psi.util.PsiTreeUtil;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParserResult;
 import org.jetbrains.kotlin.highlighter.occurrences.OccurrencesUtils;
 import org.jetbrains.kotlin.psi.KtElement;
 import org.jetbrains.kotlin.psi.KtFile;
@@ -41,8 +42,7 @@ public class KotlinInstantRenamer implements InstantRenamer {
 
     @Override
     public boolean isRenameAllowed(ParserResult info, int caretOffset, String[] explanationRetValue) {
-        FileObject fo = info.getSnapshot().getSource().getFileObject();
-        KtFile ktFile = ProjectUtils.getKtFile(fo);
+        KtFile ktFile = getKtFile(info);
         if (ktFile == null) {
             return false;
         }
@@ -54,8 +54,7 @@ public class KotlinInstantRenamer implements InstantRenamer {
     @Override
     public Set<OffsetRange> getRenameRegions(ParserResult info, int caretOffset) {
         Set<OffsetRange> ranges = new HashSet<>();
-        FileObject fo = info.getSnapshot().getSource().getFileObject();
-        KtFile ktFile = ProjectUtils.getKtFile(fo);
+        KtFile ktFile = getKtFile(info);
         if (ktFile == null) {
             return Sets.newHashSet();
         }
@@ -66,7 +65,14 @@ public class KotlinInstantRenamer implements InstantRenamer {
             return Sets.newHashSet();
         }
         
-        List<KtElement> occurrences = OccurrencesUtils.searchTextOccurrences(ktFile, ktElement);
+        List<KtElement> occurrences;
+        if (info instanceof KotlinParserResult) {
+            KotlinParserResult result = (KotlinParserResult) info;
+            occurrences = OccurrencesUtils.searchTextOccurrences(ktFile, ktElement, 
+                    result.getAnalysisResult().getAnalysisResult().getBindingContext(), result.getProject());
+        } else {
+            occurrences = OccurrencesUtils.searchTextOccurrences(ktFile, ktElement);
+        }
         for (KtElement element : occurrences) {
             OffsetRange range = new OffsetRange(element.getTextRange().getStartOffset(), 
                     element.getTextRange().getEndOffset());
@@ -76,4 +82,13 @@ public class KotlinInstantRenamer implements InstantRenamer {
         return ranges;
     }
     
+    private static KtFile getKtFile(ParserResult info) {
+        if (info instanceof KotlinParserResult) {
+            return ((KotlinParserResult) info).getKtFile();
+        }
+        
+        FileObject fo = info.getSnapshot().getSource().getFileObject();
+        return ProjectUtils.getKtFile(fo);
+    }
+    
 }
\ No newline at end of file
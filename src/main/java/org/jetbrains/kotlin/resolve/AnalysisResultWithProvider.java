@@ -16,17 +16,43 @@
  *******************************************************************************/
 package org.jetbrains.kotlin.resolve;
 
+import com.intellij.openapi.vfs.VirtualFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.analyzer.AnalysisResult;
 import org.jetbrains.kotlin.container.ComponentProvider;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.psi.KtFile;
 
 public class AnalysisResultWithProvider {
 
     private final AnalysisResult analysisResult;
     private final ComponentProvider componentProvider;
+    private final Object resolutionInputs;
+    private volatile Map<String, List<Diagnostic>> diagnosticsByFile;
     
     public AnalysisResultWithProvider(AnalysisResult analysisResult, ComponentProvider componentProvider){
+        this(analysisResult, componentProvider, new Object());
+    }
+    
+    private AnalysisResultWithProvider(AnalysisResult analysisResult, ComponentProvider componentProvider,
+            Object resolutionInputs){
         this.analysisResult = analysisResult;
         this.componentProvider = componentProvider;
+        this.resolutionInputs = resolutionInputs;
+    }
+    
+    /**
+     * Returns the same result for the given resolution inputs.
+     * @see #getResolutionInputs()
+     */
+    @NotNull
+    public AnalysisResultWithProvider withResolutionInputs(@NotNull Object resolutionInputs) {
+        return new AnalysisResultWithProvider(analysisResult, componentProvider, resolutionInputs);
     }
     
     public AnalysisResult getAnalysisResult(){
@@ -37,4 +63,72 @@ public class AnalysisResultWithProvider {
         return componentProvider;
     }
     
+    /**
+     * Returns a token of everything the resolution of a single analyzed file depends on 
+     * besides its own bodies: its declarations and the declarations of the files it 
+     * references. Two results of the file with the same token resolve code outside the 
+     * changed bodies the same way. Results which were not analyzed through 
+     * {@link org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinAnalysisProjectCache} 
+     * have tokens of their own.
+     */
+    @NotNull
+    public Object getResolutionInputs() {
+        return resolutionInputs;
+    }
+    
+    /**
+     * Returns diagnostics reported in the file with the given path. Diagnostics of the
+     * whole analysis are grouped by file once, on the first call.
+     */
+    @NotNull
+    public List<Diagnostic> getDiagnostics(@NotNull String path) {
+        List<Diagnostic> diagnostics = getDiagnosticsByFile().get(path);
+        return diagnostics != null ? diagnostics : Collections.<Diagnostic>emptyList();
+    }
+    
+    @NotNull
+    public List<Diagnostic> getDiagnostics(@NotNull KtFile ktFile) {
+        VirtualFile virtualFile = ktFile.getVirtualFile();
+        return virtualFile != null ? getDiagnostics(virtualFile.getPath()) 
+                : Collections.<Diagnostic>emptyList();
+    }
+    
+    private Map<String, List<Diagnostic>> getDiagnosticsByFile() {
+        Map<String, List<Diagnostic>> index = diagnosticsByFile;
+        if (index == null) {
+            synchronized (this) {
+                index = diagnosticsByFile;
+                if (index == null) {
+                    index = buildDiagnosticsIndex();
+                    diagnosticsByFile = index;
+                }
+            }
+        }
+        
+        return index;
+    }
+    
+    private Map<String, List<Diagnostic>> buildDiagnosticsIndex() {
+        Map<String, List<Diagnostic>> index = new HashMap<>();
+        for (Diagnostic diagnostic : analysisResult.getBindingContext().getDiagnostics().all()) {
+            VirtualFile virtualFile = diagnostic.getPsiFile().getVirtualFile();
+            if (virtualFile == null) {
+                continue;
+            }
+            
+            List<Diagnostic> diagnostics = index.get(virtualFile.getPath());
+            if (diagnostics == null) {
+                diagnostics = new ArrayList<>();
+                index.put(virtualFile.getPath(), diagnostics);
+            }
+            diagnostics.add(diagnostic);
+        }
+        
+        for (Map.Entry<String, List<Diagnostic>> entry : index.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        
+        return index;
+    }
+    
 }
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.resolve;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Computable;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Runs analysis or code generation under a {@link ProgressIndicator}. Kotlin frontend
+ * and codegen check the indicator of the current thread, so cancelling the indicator
+ * stops the computation with {@link ProcessCanceledException} at the next check.
+ */
+public class CancellableAnalysis {
+
+    private static final AtomicLong COMPLETED = new AtomicLong();
+    private static final AtomicLong CANCELLED = new AtomicLong();
+
+    private CancellableAnalysis() {}
+
+    public static <T> T run(@NotNull ProgressIndicator indicator, @NotNull Computable<T> computation) {
+        try {
+            indicator.checkCanceled();
+            T result = ProgressManager.getInstance().runProcess(computation, indicator);
+            indicator.checkCanceled();
+            COMPLETED.incrementAndGet();
+
+            return result;
+        } catch (ProcessCanceledException ex) {
+            CANCELLED.incrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Rethrows cancellation which the frontend wrapped into another exception.
+     */
+    public static void rethrowIfCanceled(@NotNull Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause != null) {
+            if (cause instanceof ProcessCanceledException) {
+                throw (ProcessCanceledException) cause;
+            }
+            cause = cause.getCause();
+        }
+    }
+
+    public static long getCompletedCount() {
+        return COMPLETED.get();
+    }
+
+    public static long getCancelledCount() {
+        return CANCELLED.get();
+    }
+
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.resolve
+
+import org.jetbrains.kotlin.diagnostics.Errors
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtReferenceExpression
+import org.jetbrains.kotlin.psi.KtTreeVisitorVoid
+
+/**
+ * Graph of source files keyed by path: for every analyzed file it keeps the set of files
+ * which declare something the file references. Files with unresolved references are tracked
+ * separately because a new declaration anywhere in the project can make them resolvable.
+ */
+class KotlinFileDependencyGraph {
+
+    private val dependencies = hashMapOf<String, Set<String>>()
+    private val dependents = hashMapOf<String, MutableSet<String>>()
+    private val filesWithUnresolvedReferences = hashSetOf<String>()
+
+    fun update(files: Collection<KtFile>, analysisResult: AnalysisResultWithProvider) {
+        val bindingContext = analysisResult.analysisResult.bindingContext
+        val analyzedPaths = files.mapNotNull { it.path() }.toSet()
+        analyzedPaths.forEach { remove(it) }
+
+        for (ktFile in files) {
+            val path = ktFile.path() ?: continue
+            val referencedFiles = ktFile.collectReferencedFiles(bindingContext)
+            referencedFiles.remove(path)
+
+            dependencies[path] = referencedFiles
+            referencedFiles.forEach { dependents.getOrPut(it) { hashSetOf() }.add(path) }
+        }
+
+        analyzedPaths.filterTo(filesWithUnresolvedReferences) { path ->
+            analysisResult.getDiagnostics(path).any { it.factory == Errors.UNRESOLVED_REFERENCE }
+        }
+    }
+
+    /**
+     * Returns files whose analysis can observe a change of declarations in [path].
+     */
+    fun getAffectedFiles(path: String): Set<String> = hashSetOf<String>().apply {
+        dependents[path]?.let { addAll(it) }
+        addAll(filesWithUnresolvedReferences)
+        remove(path)
+    }
+
+    fun remove(path: String) {
+        dependencies.remove(path)?.forEach { dependents[it]?.remove(path) }
+        filesWithUnresolvedReferences.remove(path)
+    }
+
+    fun clear() {
+        dependencies.clear()
+        dependents.clear()
+        filesWithUnresolvedReferences.clear()
+    }
+
+    private fun KtFile.collectReferencedFiles(bindingContext: BindingContext): MutableSet<String> {
+        val referencedFiles = hashSetOf<String>()
+        accept(object : KtTreeVisitorVoid() {
+            override fun visitReferenceExpression(expression: KtReferenceExpression) {
+                val target = bindingContext[BindingContext.REFERENCE_TARGET, expression]
+                if (target != null) {
+                    val declaration = DescriptorToSourceUtils.descriptorToDeclaration(target)
+                    (declaration?.containingFile as? KtFile)?.path()?.let { referencedFiles.add(it) }
+                }
+
+                super.visitReferenceExpression(expression)
+            }
+        })
+
+        return referencedFiles
+    }
+
+    private fun KtFile.path(): String? = virtualFile?.path
+}
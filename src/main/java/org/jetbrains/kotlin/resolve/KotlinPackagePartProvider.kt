@@ -5,14 +5,29 @@ import org.jetbrains.kotlin.model.KotlinEnvironment
 import org.jetbrains.kotlin.descriptors.PackagePartProvider
 import org.jetbrains.kotlin.load.kotlin.ModuleMapping
 import org.jetbrains.kotlin.cli.jvm.compiler.JavaRoot
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import java.util.concurrent.ConcurrentHashMap
 
 class KotlinPackagePartProvider(val project: Project) : PackagePartProvider {
     val roots = KotlinEnvironment.getEnvironment(project)
             .getRoots()
             .map { it.file }
             .filter { it.findChild("META-INF") != null }
+    
+    // jars do not change while the environment lives, so their mappings are computed once per package
+    private val jarRoots = roots.filter { it.fileSystem.protocol == StandardFileSystems.JAR_PROTOCOL }
+    private val directoryRoots = roots.filter { it.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL }
+    private val jarPackageParts = ConcurrentHashMap<String, List<String>>()
 
     override fun findPackageParts(packageFqName: String): List<String> {
+        val fromJars = jarPackageParts.getOrPut(packageFqName) { findPackageParts(jarRoots, packageFqName) }
+        if (directoryRoots.isEmpty()) return fromJars
+        
+        return (fromJars + findPackageParts(directoryRoots, packageFqName)).distinct()
+    }
+    
+    private fun findPackageParts(roots: List<VirtualFile>, packageFqName: String): List<String> {
         val pathParts = packageFqName.split('.')
         val mappings = roots.filter {
             //filter all roots by package path existing
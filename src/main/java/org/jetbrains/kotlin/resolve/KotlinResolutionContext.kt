@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.resolve
+
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.project.Project
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParserResultStore
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.utils.ProjectUtils
+import org.netbeans.api.project.Project as NBProject
+
+/**
+ * Per-project state which survives between analyses. It lives as long as the
+ * [org.jetbrains.kotlin.model.KotlinEnvironment] of the project, so it is dropped
+ * together with the environment when the classpath changes.
+ *
+ * It keeps the package part lookups in library roots and the set of parsed source
+ * files. Files passed for analysis replace their previous versions, and files open
+ * in an editor are taken from the latest parser result. Other files, including files
+ * whose editor was closed without saving, are reparsed if they differ from the disk.
+ */
+class KotlinResolutionContext(val kotlinProject: NBProject) {
+
+    private class SourceEntry(val ktFile: KtFile, val timestamp: Long)
+
+    private val sourceFiles = linkedMapOf<String, SourceEntry>()
+
+    val packagePartProvider by lazy { KotlinPackagePartProvider(kotlinProject) }
+
+    @Synchronized
+    fun getSourceFiles(filesToAnalyze: Collection<KtFile>): List<KtFile> {
+        val fileObjects = ProjectUtils.getSourceFileObjectsWithDependencies(kotlinProject)
+        val paths = fileObjects.map { it.path }.toSet()
+        sourceFiles.keys.retainAll(paths)
+
+        for (fileObject in fileObjects) {
+            val editorFile = KotlinParserResultStore.INSTANCE.get(fileObject)?.ktFile
+            if (editorFile != null) {
+                sourceFiles[fileObject.path] = SourceEntry(editorFile, NOT_FROM_DISK)
+                continue
+            }
+
+            val timestamp = fileObject.lastModified().time
+            val entry = sourceFiles[fileObject.path]
+            if (entry == null || entry.timestamp != timestamp) {
+                val ktFile = ProjectUtils.getKtFile(fileObject) ?: continue
+                sourceFiles[fileObject.path] = SourceEntry(ktFile, timestamp)
+            }
+        }
+
+        for (ktFile in filesToAnalyze) {
+            val path = ktFile.virtualFile?.path ?: continue
+            sourceFiles[path] = SourceEntry(ktFile, NOT_FROM_DISK)
+        }
+
+        return sourceFiles.values.map { it.ktFile }
+    }
+
+    @Synchronized
+    fun invalidateSources() {
+        sourceFiles.clear()
+    }
+
+    companion object {
+        // the PSI may differ from the disk, so it is replaced on the next lookup
+        private const val NOT_FROM_DISK = -1L
+
+        @JvmStatic
+        fun getInstance(ideaProject: Project): KotlinResolutionContext =
+                ServiceManager.getService(ideaProject, KotlinResolutionContext::class.java)
+    }
+}
@@ -26,11 +26,11 @@ import org.jetbrains.kotlin.resolve.TopDownAnalysisMode
 import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM
 import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory
 import java.util.LinkedHashSet
-import org.jetbrains.kotlin.utils.ProjectUtils
 import org.netbeans.api.project.Project as NBProject
 import com.intellij.openapi.project.Project
 import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.util.KotlinFrontEndException
+import com.intellij.openapi.progress.ProgressManager
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 
 object NetBeansAnalyzerFacadeForJVM {
@@ -40,14 +40,10 @@ object NetBeansAnalyzerFacadeForJVM {
             project : Project,
             filesToAnalyze: Collection<KtFile>): AnalysisResultWithProvider {
         val filesSet = filesToAnalyze.toSet()
-        if (filesSet.size != filesToAnalyze.size) {
-        }
+        val resolutionContext = KotlinResolutionContext.getInstance(project)
         
         val allFiles = LinkedHashSet<KtFile>(filesSet)
-        val addedFiles = filesSet.map { getPath(it) }.filterNotNull().toSet()
-        ProjectUtils.getSourceFilesWithDependencies(kotlinProject).filterNotTo(allFiles) {
-            getPath(it) in addedFiles
-        }
+        allFiles.addAll(resolutionContext.getSourceFiles(filesSet))
         
         val moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(project, project.getName())
         val providerFactory = FileBasedDeclarationProviderFactory(moduleContext.storageManager, allFiles)
@@ -60,7 +56,7 @@ object NetBeansAnalyzerFacadeForJVM {
                 GlobalSearchScope.allScope(project),
                 kotlinProject,
                 LookupTracker.DO_NOTHING,
-                KotlinPackagePartProvider(kotlinProject),
+                resolutionContext.packagePartProvider,
                 LanguageVersion.LATEST)
         val container = containerAndProvider.first
         val additionalProviders = listOf(container.javaDescriptorResolver.packageFragmentProvider)
@@ -68,13 +64,13 @@ object NetBeansAnalyzerFacadeForJVM {
         try {
             container.lazyTopDownAnalyzerForTopLevel.analyzeFiles(TopDownAnalysisMode.TopLevelDeclarations, filesSet, additionalProviders)
         } catch(e: KotlinFrontEndException) {
+            CancellableAnalysis.rethrowIfCanceled(e)
         }
+        ProgressManager.checkCanceled()
         
         return AnalysisResultWithProvider(
                 AnalysisResult.success(trace.getBindingContext(), moduleContext.module),
                 containerAndProvider.second)
 }
     
-    private fun getPath(jetFile: KtFile): String? = jetFile.getVirtualFile()?.getPath()
-    
 }
\ No newline at end of file
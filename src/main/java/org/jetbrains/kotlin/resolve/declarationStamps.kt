@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package org.jetbrains.kotlin.resolve
+
+import com.intellij.psi.PsiComment
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor
+import com.intellij.psi.PsiWhiteSpace
+import org.jetbrains.kotlin.psi.KtAnonymousInitializer
+import org.jetbrains.kotlin.psi.KtDeclarationWithBody
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtProperty
+
+/**
+ * Hash of everything in the file that can be observed from other files: package directive,
+ * imports and declaration headers. Bodies are skipped unless they define an inferred type.
+ */
+fun KtFile.declarationStamp(): Int {
+    var stamp = 1
+    accept(object : PsiRecursiveElementWalkingVisitor() {
+        override fun visitElement(element: PsiElement) {
+            if (element is PsiWhiteSpace || element is PsiComment || element.isOpaqueBody()) return
+
+            if (element.firstChild == null) {
+                stamp = 31 * stamp + element.text.hashCode()
+                return
+            }
+
+            super.visitElement(element)
+        }
+    })
+
+    return stamp
+}
+
+/**
+ * Returns true if this element is a body whose contents cannot change any declaration signature.
+ */
+fun PsiElement.isOpaqueBody(): Boolean {
+    val parent = parent
+    return when (parent) {
+        is KtDeclarationWithBody -> this == parent.bodyExpression &&
+                (parent.hasBlockBody() || parent.hasDeclaredReturnType())
+        is KtProperty -> (this == parent.initializer || this == parent.delegate) &&
+                parent.typeReference != null
+        is KtAnonymousInitializer -> this == parent.body
+        else -> false
+    }
+}
@@ -20,6 +20,8 @@ package org.jetbrains.kotlin.resolve.lang.kotlin;
 
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.search.GlobalSearchScope;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.lang.model.element.TypeElement;
 import org.jetbrains.kotlin.model.KotlinEnvironment;
 import org.jetbrains.kotlin.projectsextensions.KotlinProjectHelper;
@@ -44,6 +46,8 @@ import org.openide.filesystems.FileSystem;
 public class NetBeansVirtualFileFinder extends VirtualFileKotlinClassFinder implements JvmVirtualFileFinderFactory {
 
     Project project;
+    // classes in jars do not change while the environment lives
+    private final ConcurrentMap<ClassId, VirtualFile> filesInJars = new ConcurrentHashMap<>();
 
     public NetBeansVirtualFileFinder(Project project) {
         this.project = project;
@@ -77,6 +81,11 @@ public class NetBeansVirtualFileFinder extends VirtualFileKotlinClassFinder impl
     
     @Override
     public VirtualFile findVirtualFileWithHeader(ClassId classId) {
+        VirtualFile fileInJar = filesInJars.get(classId);
+        if (fileInJar != null) {
+            return fileInJar;
+        }
+        
         ClassPath proxy = KotlinProjectHelper.INSTANCE.getFullClassPath(project);
         String rPath;
         if (classId.isNestedClass()) {
@@ -100,8 +109,12 @@ public class NetBeansVirtualFileFinder extends VirtualFileKotlinClassFinder impl
                     if (splittedPath.length < 2) {
                         return null;
                     }
-                    return KotlinEnvironment.getEnvironment(project).
+                    fileInJar = KotlinEnvironment.getEnvironment(project).
                             getVirtualFileInJar(pathToJar, splittedPath[1]);
+                    if (fileInJar != null) {
+                        filesInJars.put(classId, fileInJar);
+                    }
+                    return fileInJar;
                 } catch (FileStateInvalidException ex) {
                     KotlinLogger.INSTANCE.logException("Can't get file in jar", ex);
                     return null;
@@ -121,7 +134,7 @@ public class NetBeansVirtualFileFinder extends VirtualFileKotlinClassFinder impl
 
     @Override
     public JvmVirtualFileFinder create(GlobalSearchScope gss) {
-        return new NetBeansVirtualFileFinder(project);
+        return this;
     }
 
     private boolean isBinaryKotlinClass(TypeElement type) {
@@ -171,18 +171,24 @@ public class ProjectUtils {
     
     @NotNull
     public static List<KtFile> getSourceFilesWithDependencies(@NotNull Project project){
-        List<KtFile> depFiles = new ArrayList<>();
+        List<KtFile> files = new ArrayList<>();
+        for (FileObject file : getSourceFileObjectsWithDependencies(project)) {
+            files.add(getKtFile(file));
+        }
+        
+        return files;
+    }
+    
+    @NotNull
+    public static List<FileObject> getSourceFileObjectsWithDependencies(@NotNull Project project){
+        List<FileObject> files = new ArrayList<>(KotlinPsiManager.INSTANCE.getFilesByProject(project));
         if (project.getClass().getName().
                     equals("org.netbeans.modules.maven.NbMavenProjectImpl")) {
             List<? extends Project> depProjects = MavenHelper.getDependencyProjects(project);
             for (Project depProject : depProjects) {
-                for (FileObject file : KotlinPsiManager.INSTANCE.getFilesByProject(depProject)){
-                    depFiles.add(getKtFile(file));
-                }
+                files.addAll(KotlinPsiManager.INSTANCE.getFilesByProject(depProject));
             }
         }
-        List<KtFile> files = getSourceFiles(project);
-        files.addAll(depFiles);
         
         return files;
     }
@@ -240,10 +246,6 @@ public class ProjectUtils {
         return editorCookie.openDocument();
     }
     
-    public static String getKotlinProjectLightClassesPath(Project project){
-        return KotlinProjectHelper.INSTANCE.getLightClassesDirectory(project).getPath();
-    }
-    
     public static Project getValidProject() {
         for (Project project : OpenProjects.getDefault().getOpenProjects()) {
             if (KotlinProjectHelper.INSTANCE.checkProject(project)) {
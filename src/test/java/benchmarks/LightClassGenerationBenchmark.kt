@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package benchmarks
+
+import lightclasses.analyzeGeneratedModule
+import lightclasses.generateLightClasses
+
+/**
+ * Timed harness comparing signature-only light classes with the full class writer, not
+ * a part of the unit tests. For generated modules of 100 and 1000 classes it prints the 
+ * mean generation time and the total size of the classes of both modes. Run it with the 
+ * test classpath:
+ * 
+ *     mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmarks.LightClassGenerationBenchmark
+ */
+object LightClassGenerationBenchmark {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        for (classes in listOf(100, 1000)) {
+            val (ktFile, analysisResult) = analyzeGeneratedModule(classes)
+            for (signaturesOnly in listOf(false, true)) {
+                val mode = if (signaturesOnly) "signatures only" else "full"
+                val size = generateLightClasses(ktFile, analysisResult, signaturesOnly).values.sumBy { it.size }
+                measure("$classes classes, $mode") { generateLightClasses(ktFile, analysisResult, signaturesOnly) }
+                println("    $size bytes")
+            }
+        }
+        System.exit(0)
+    }
+
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package benchmarks
+
+import org.jetbrains.kotlin.highlighter.KotlinTokenScanner
+
+/**
+ * Timed harness for the highlighting lexer, not a part of the unit tests. Lexes generated 
+ * files of about 1k, 10k and 100k tokens the way the lexer proxy does, without creating 
+ * tokens, and prints the mean time per file and per token. Run it with the test classpath:
+ * 
+ *     mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=benchmarks.TokenScannerBenchmark
+ */
+object TokenScannerBenchmark {
+
+    private fun generateFile(functions: Int) = 
+            (1..functions).joinToString("\n") { "fun f$it(x: Int) = \"a${'$'}{x + $it}b\"" }
+
+    private fun lex(text: String): Int {
+        val scanner = KotlinTokenScanner(text)
+        var tokens = 0
+        while (scanner.nextTokenType() != null) {
+            tokens++
+        }
+        
+        return tokens
+    }
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        for (functions in listOf(50, 500, 5000)) {
+            val text = generateFile(functions)
+            val tokens = lex(text)
+            val nanos = measure("$tokens tokens") { lex(text) }
+            println("    ${nanos / tokens} ns per token")
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package benchmarks
+
+/**
+ * Runs [action] [warmup] times untimed, then [iterations] times timed. Prints and returns 
+ * the mean time of one run in nanoseconds.
+ */
+fun measure(name: String, warmup: Int = 5, iterations: Int = 10, action: () -> Unit): Long {
+    for (i in 1..warmup) {
+        action()
+    }
+
+    val start = System.nanoTime()
+    for (i in 1..iterations) {
+        action()
+    }
+    val meanNanos = (System.nanoTime() - start) / iterations
+    println("$name: ${meanNanos / 1000} us")
+
+    return meanNanos
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package builder
+
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.netbeans.junit.NbTestCase
+import utils.getSourceFile
+
+class PsiFileCacheTest : NbTestCase("PSI file cache test") {
+
+    private val mainFile = getSourceFile("main", "main.kt")
+
+    private val cache = KotlinPsiManager.INSTANCE.fileCache
+
+    private fun parse(text: String) = KotlinPsiManager.INSTANCE.parseTextForDiagnostic(text, mainFile)
+
+    fun testSameTextIsParsedOnce() {
+        val ktFile = parse("package main\n\nfun cached() = 1")
+        val hits = cache.hitCount
+        val misses = cache.missCount
+
+        assertSame(ktFile, parse("package main\n\nfun cached() = 1"))
+        assertEquals(hits + 1, cache.hitCount)
+        assertEquals(misses, cache.missCount)
+    }
+
+    fun testChangedTextIsParsedAgain() {
+        val ktFile = parse("package main\n\nfun changed() = 1")
+        val misses = cache.missCount
+
+        val changedFile = parse("package main\n\nfun changed() = 2")
+        assertNotSame(ktFile, changedFile)
+        assertEquals("package main\n\nfun changed() = 2", changedFile.text)
+        assertEquals(misses + 1, cache.missCount)
+    }
+
+    fun testOnlyLastTextOfFileIsCached() {
+        val first = parse("package main\n\nfun first() = 1")
+        parse("package main\n\nfun second() = 1")
+
+        assertNotSame(first, parse("package main\n\nfun first() = 1"))
+    }
+
+    fun testRemovedFileIsParsedAgain() {
+        val ktFile = parse("package main\n\nfun removed() = 1")
+        cache.remove(mainFile)
+
+        assertNotSame(ktFile, parse("package main\n\nfun removed() = 1"))
+    }
+
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package builder
+
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.netbeans.junit.NbTestCase
+import utils.getSourceFile
+
+class ReparseTest : NbTestCase("Reparse test") {
+
+    private val mainFile = getSourceFile("main", "main.kt")
+
+    private val text = """
+        |package main
+        |
+        |fun f(x: Int): Int {
+        |    val y = x + 1
+        |    return y
+        |}
+        |
+        |fun g() = f(1)
+        |""".trimMargin()
+
+    fun testUnchangedText() {
+        val ktFile = KotlinPsiManager.INSTANCE.parseTextForDiagnostic(text, mainFile)
+        assertSame(ktFile, KotlinPsiManager.INSTANCE.parseTextForDiagnostic(text, mainFile))
+    }
+
+    fun testTextsWithSameHash() {
+        // "aa" and "bB" have the same polynomial hash
+        val ktFile = KotlinPsiManager.INSTANCE.parseTextForDiagnostic(text.replace("y", "aa"), mainFile)
+        val collidingFile = KotlinPsiManager.INSTANCE.parseTextForDiagnostic(text.replace("y", "bB"), mainFile)
+
+        assertNotSame(ktFile, collidingFile)
+        assertEquals(text.replace("y", "bB"), collidingFile.text)
+    }
+
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package builder
+
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.netbeans.junit.NbTestCase
+import utils.getAllKtFilesInFolder
+import utils.getSourceFile
+import utils.testProject
+
+class SourceRegistryTest : NbTestCase("Source registry test") {
+
+    fun testFilesOfProject() {
+        val files = KotlinPsiManager.INSTANCE.getFilesByProject(testProject)
+
+        assertTrue(files.contains(getSourceFile("main", "main.kt")))
+        assertFalse(files.contains(getSourceFile("navigation", "JavaClass.java")))
+    }
+
+    fun testFilesOfPackage() {
+        val files = KotlinPsiManager.INSTANCE.getFilesByPackage(testProject, "navigation")
+
+        assertEquals(getAllKtFilesInFolder(getSourceFile("navigation")).toSet(), files)
+        assertTrue(KotlinPsiManager.INSTANCE.getFilesByPackage(testProject, "no.such.package").isEmpty())
+    }
+
+}
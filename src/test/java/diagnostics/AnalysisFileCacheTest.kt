@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package diagnostics
+
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.jetbrains.kotlin.model.KotlinAnalysisFileCache
+import org.netbeans.junit.NbTestCase
+import utils.getSourceFile
+import utils.testProject
+
+class AnalysisFileCacheTest : NbTestCase("Analysis file cache test") {
+
+    private val project = testProject
+    private val mainFile = getSourceFile("main", "main.kt")
+
+    private val cache = KotlinAnalysisFileCache.INSTANCE
+
+    private fun analyze(text: String) =
+            cache.getAnalysisResult(KotlinPsiManager.INSTANCE.parseText(text, mainFile)!!, project)
+
+    fun testSameTextIsAnalyzedOnce() {
+        val result = analyze("package main\n\nfun cached() = 1")
+        val hits = cache.hitCount
+
+        // a new PSI of the same text reuses the result
+        assertSame(result, analyze("package main\n\nfun cached() = 1"))
+        assertEquals(hits + 1, cache.hitCount)
+    }
+
+    fun testChangedTextIsAnalyzedAgain() {
+        val result = analyze("package main\n\nfun changed() = 1")
+        val misses = cache.missCount
+
+        assertNotSame(result, analyze("package main\n\nfun changed() = \"\""))
+        assertEquals(misses + 1, cache.missCount)
+    }
+
+    fun testResetPathIsAnalyzedAgain() {
+        analyze("package main\n\nfun reset() = 1")
+        cache.resetCache(listOf(mainFile.path))
+        val misses = cache.missCount
+
+        analyze("package main\n\nfun reset() = 1")
+        assertEquals(misses + 1, cache.missCount)
+    }
+
+}
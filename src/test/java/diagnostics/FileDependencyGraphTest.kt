@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package diagnostics
+
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinAnalysisProjectCache
+import org.jetbrains.kotlin.model.KotlinEnvironment
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.KotlinFileDependencyGraph
+import org.jetbrains.kotlin.resolve.NetBeansAnalyzerFacadeForJVM
+import org.netbeans.junit.NbTestCase
+import org.openide.filesystems.FileUtil
+import utils.testProject
+
+class FileDependencyGraphTest : NbTestCase("File dependency graph test") {
+
+    private val project = testProject
+
+    private fun parse(name: String, text: String): KtFile {
+        val file = FileUtil.createData(FileUtil.toFileObject(workDir), name)
+        return KotlinPsiManager.INSTANCE.parseText(text, file)!!
+    }
+
+    private fun graphOf(vararg files: KtFile) = KotlinFileDependencyGraph().apply {
+        update(files.asList(), NetBeansAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(project,
+                KotlinEnvironment.getEnvironment(project).project, files.asList()))
+    }
+
+    private val declaring by lazy { parse("Declaring.kt", "package dependencies\n\nclass Declared") }
+
+    fun testReferencingFileIsAffected() {
+        val referencing = parse("Referencing.kt", "package dependencies\n\nfun create(): Declared = Declared()")
+        val independent = parse("Independent.kt", "package dependencies\n\nfun independent() = 1")
+        val graph = graphOf(declaring, referencing, independent)
+
+        assertEquals(setOf(referencing.virtualFile.path), graph.getAffectedFiles(declaring.virtualFile.path))
+        assertTrue(graph.getAffectedFiles(referencing.virtualFile.path).isEmpty())
+        assertTrue(graph.getAffectedFiles(independent.virtualFile.path).isEmpty())
+    }
+
+    fun testFileWithUnresolvedReferenceIsAlwaysAffected() {
+        val unresolved = parse("Unresolved.kt", "package dependencies\n\nfun create() = Undeclared()")
+        val graph = graphOf(declaring, unresolved)
+
+        // declaring any class could make the reference resolvable
+        assertEquals(setOf(unresolved.virtualFile.path), graph.getAffectedFiles(declaring.virtualFile.path))
+    }
+
+    fun testRemovedFileIsNotAffected() {
+        val referencing = parse("Referencing.kt", "package dependencies\n\nfun create(): Declared = Declared()")
+        val graph = graphOf(declaring, referencing)
+        graph.remove(referencing.virtualFile.path)
+
+        assertTrue(graph.getAffectedFiles(declaring.virtualFile.path).isEmpty())
+    }
+
+    fun testDiskChangeInvalidatesDependents() {
+        val referencing = parse("Referencing.kt", "package dependencies\n\nfun create(): Declared = Declared()")
+        val cache = KotlinAnalysisProjectCache.INSTANCE
+        cache.getAnalysisResult(project, declaring)
+        val result = cache.getAnalysisResult(project, referencing)
+        assertSame(result, cache.getAnalysisResult(project, referencing))
+
+        val file = FileUtil.toFileObject(workDir).getFileObject("Declaring.kt")
+        file.getOutputStream().use { it.write("package dependencies\n\nclass Renamed".toByteArray()) }
+        cache.fileChanged(project, file)
+
+        assertNotSame(result, cache.getAnalysisResult(project, referencing))
+    }
+
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package diagnostics
+
+import javax.swing.text.Document
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParserResultStore
+import org.jetbrains.kotlin.resolve.KotlinAnalyzer
+import org.jetbrains.kotlin.utils.ProjectUtils
+import org.netbeans.junit.NbTestCase
+import org.netbeans.modules.parsing.api.Source
+import utils.getDocumentForFileObject
+import utils.getSourceFile
+import utils.testProject
+
+class ParserResultStoreTest : NbTestCase("Parser result store test") {
+
+    private val project = testProject
+    private val file = getSourceFile("navigation", "KotlinClass.kt")
+
+    private val store = KotlinParserResultStore.INSTANCE
+    private val ktFile by lazy { ProjectUtils.getKtFile(file) }
+    private val analysisResult by lazy { KotlinAnalyzer.analyzeFile(project, ktFile) }
+
+    private fun edit(doc: Document, action: () -> Unit) {
+        doc.insertString(0, "\n", null)
+        try {
+            action()
+        } finally {
+            doc.remove(0, 1)
+        }
+    }
+
+    override fun tearDown() {
+        store.remove(file)
+        super.tearDown()
+    }
+
+    fun testResultOfCurrentSnapshotIsStored() {
+        val snapshot = Source.create(getDocumentForFileObject(file)).createSnapshot()
+
+        assertTrue(store.put(file, snapshot, ktFile, analysisResult))
+        assertSame(ktFile, store.get(file)!!.ktFile)
+        assertSame(ktFile, store.get(ktFile)!!.ktFile)
+        assertTrue(store.get(file)!!.isCurrent)
+    }
+
+    fun testResultOfOutdatedSnapshotIsRejected() {
+        val doc = getDocumentForFileObject(file)
+        val snapshot = Source.create(doc).createSnapshot()
+
+        edit(doc) {
+            assertFalse(store.put(file, snapshot, ktFile, analysisResult))
+            assertNull(store.get(file))
+        }
+    }
+
+    fun testEditOutdatesStoredResult() {
+        val doc = getDocumentForFileObject(file)
+        store.put(file, Source.create(doc).createSnapshot(), ktFile, analysisResult)
+
+        edit(doc) {
+            assertFalse(store.get(file)!!.isCurrent)
+        }
+        // the stamp of the document is not restored by an edit which restores the text
+        assertFalse(store.get(file)!!.isCurrent)
+    }
+
+    fun testResultStaysCurrentWithoutEdits() {
+        val doc = getDocumentForFileObject(file)
+        store.put(file, Source.create(doc).createSnapshot(), ktFile, analysisResult)
+        val entry = store.get(file)!!
+
+        assertTrue(entry.isCurrent)
+        assertTrue(entry.isCurrent)
+    }
+
+    fun testResultWithoutSnapshotIsAlwaysStored() {
+        edit(getDocumentForFileObject(file)) {
+            assertTrue(store.put(file, null, ktFile, analysisResult))
+            assertTrue(store.get(file)!!.isCurrent)
+        }
+    }
+
+    fun testRemovedResultIsDropped() {
+        store.put(file, null, ktFile, analysisResult)
+        store.remove(file)
+
+        assertNull(store.get(file))
+    }
+
+}
@@ -18,6 +18,7 @@ package highlighting
 
 import javaproject.JavaProject
 import javax.swing.text.Document
+import org.jetbrains.kotlin.highlighter.KotlinLexerState
 import org.jetbrains.kotlin.highlighter.KotlinTokenScanner
 import org.jetbrains.kotlin.highlighter.TokenType
 import org.jetbrains.kotlin.highlighter.netbeans.KotlinToken
@@ -96,4 +97,46 @@ class HighlightingTest : NbTestCase("Highlighting test") {
     
     fun testTextWithTokenInside() = doTest("textWithTokenInside.kt")
     
+    fun testLargeFiles() {
+        for (functions in listOf(50, 500, 5000)) {
+            val text = (1..functions).joinToString("\n") { "fun f$it(x: Int) = \"a${'$'}{x + $it}b\"" }
+            val tokens = KotlinTokenScanner(text).tokens
+            
+            // about 20 tokens per function, so the sizes go from 1k to 100k tokens
+            assertTrue(tokens.size > functions * 20)
+            assertEquals(text, tokens.joinToString("") { it.text })
+            assertEquals(functions, tokens.count { it.type == TokenType.KEYWORD })
+        }
+    }
+    
+    fun testRestartFromEveryState() {
+        val text = """
+            |/**
+            | * Doc with a [link] and /* nested */ comment.
+            | * @param x the value
+            | */
+            |fun f(x: Int) = "a${'$'}x b${'$'}{ x + "c${'$'}{ listOf(1).map { it + 1 } }d" } e"
+            |val raw = ${"\"\"\""}raw ${'$'}{ f(1) } ${"\"\"\""}
+            |class C(vararg val items: String) { companion object { fun get() = "unterminated
+            |}}
+            |""".trimMargin().repeat(4)
+        
+        val scanner = KotlinTokenScanner(text)
+        val tokens = arrayListOf<KotlinToken<KotlinTokenId>>()
+        val states = arrayListOf<KotlinLexerState?>()
+        while (true) {
+            tokens.add(scanner.getNextToken() ?: break)
+            states.add(scanner.state())
+        }
+        assertEquals(text, tokens.joinToString("") { it.text })
+        
+        var offset = 0
+        for (i in tokens.indices) {
+            offset += tokens[i].length()
+            val restarted = KotlinTokenScanner(null, text.substring(offset), states[i]).tokens.dropLast(1)
+            assertEquals("restart after token $i", tokens.drop(i + 1).map { it.type to it.text },
+                    restarted.map { it.type to it.text })
+        }
+    }
+    
 }
\ No newline at end of file
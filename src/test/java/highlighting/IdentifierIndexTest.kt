@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package highlighting
+
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.jetbrains.kotlin.highlighter.occurrences.KotlinIdentifierIndex
+import org.netbeans.junit.NbTestCase
+import utils.getSourceFile
+
+class IdentifierIndexTest : NbTestCase("Identifier index test") {
+
+    private val mainFile = getSourceFile("main", "main.kt")
+
+    private val text = """
+        |package main
+        |
+        |fun f(x: Int): Int {
+        |    val `y` = x + 1
+        |    // x in a comment
+        |    return "x" + y + x
+        |}
+        |""".trimMargin()
+
+    fun testOffsetsOfIdentifiers() {
+        // strings and comments are not identifiers
+        val index = KotlinIdentifierIndex.get(KotlinPsiManager.INSTANCE.parseText(text, mainFile)!!)
+
+        assertEquals(listOf(text.indexOf("x:"), text.indexOf("x +"), text.lastIndexOf("x")),
+                index.getOffsets("x").toList())
+        assertEquals(listOf(text.indexOf("f(")), index.getOffsets("f").toList())
+        assertEquals(2, index.getOffsets("Int").size)
+    }
+
+    fun testQuotedIdentifiers() {
+        val index = KotlinIdentifierIndex.get(KotlinPsiManager.INSTANCE.parseText(text, mainFile)!!)
+
+        assertEquals(listOf(text.indexOf("`y`"), text.indexOf("y +")), index.getOffsets("y").toList())
+        assertEquals(0, index.getOffsets("`y`").size)
+    }
+
+    fun testMissingName() {
+        val index = KotlinIdentifierIndex.get(KotlinPsiManager.INSTANCE.parseText(text, mainFile)!!)
+
+        assertEquals(0, index.getOffsets("z").size)
+    }
+
+    fun testIndexIsBuiltOncePerFile() {
+        val ktFile = KotlinPsiManager.INSTANCE.parseText(text, mainFile)!!
+
+        assertSame(KotlinIdentifierIndex.get(ktFile), KotlinIdentifierIndex.get(ktFile))
+        assertNotSame(KotlinIdentifierIndex.get(ktFile),
+                KotlinIdentifierIndex.get(KotlinPsiManager.INSTANCE.parseText(text, mainFile)!!))
+    }
+
+}
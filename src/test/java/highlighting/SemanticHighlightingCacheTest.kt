@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package highlighting
+
+import javax.swing.text.PlainDocument
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.jetbrains.kotlin.diagnostics.netbeans.parser.KotlinParserResult
+import org.jetbrains.kotlin.highlighter.semanticanalyzer.KotlinSemanticAnalyzer
+import org.jetbrains.kotlin.highlighter.semanticanalyzer.KotlinSemanticHighlightingVisitor
+import org.jetbrains.kotlin.resolve.KotlinAnalyzer
+import org.netbeans.junit.NbTestCase
+import org.netbeans.modules.parsing.api.Source
+import utils.getSourceFile
+import utils.testProject
+
+class SemanticHighlightingCacheTest : NbTestCase("Semantic highlighting cache test") {
+
+    private val mainFile = getSourceFile("main", "main.kt")
+
+    private val text = """
+        |package main
+        |
+        |class Point(val x: Int, var y: Int)
+        |
+        |fun first(p: Point) = p.x + p.y
+        |
+        |fun second(p: Point): Int {
+        |    val sum = p.x + p.y
+        |    return sum
+        |}
+        |
+        |fun third(p: Point) = p.y
+        |""".trimMargin()
+
+    private fun parserResult(text: String): KotlinParserResult {
+        val ktFile = KotlinPsiManager.INSTANCE.parseTextForDiagnostic(text, mainFile)
+        val document = PlainDocument()
+        document.putProperty("mimeType", "text/x-kt")
+        document.insertString(0, text, null)
+
+        return KotlinParserResult(Source.create(document).createSnapshot(),
+                KotlinAnalyzer.analyzeFile(testProject, ktFile), ktFile, testProject)
+    }
+
+    /**
+     * Highlights the text, checks the highlighting against the whole file visitor and 
+     * returns the number of units which were not taken from the cache.
+     */
+    private fun highlight(text: String): Long {
+        val computedUnits = KotlinSemanticAnalyzer.getComputedUnitCount()
+        val result = parserResult(text)
+        val analyzer = KotlinSemanticAnalyzer()
+        analyzer.run(result, null)
+
+        val expected = KotlinSemanticHighlightingVisitor(result.ktFile, result.analysisResult.analysisResult)
+                .computeHighlightingRanges()
+        assertEquals(expected, analyzer.highlights)
+
+        return KotlinSemanticAnalyzer.getComputedUnitCount() - computedUnits
+    }
+
+    fun testBodyEditReusesOtherFunctions() {
+        highlight(text)
+        assertEquals(1L, highlight(text.replace("sum", "total")))
+    }
+
+    fun testDeclarationEditRecomputesFile() {
+        highlight(text)
+        assertTrue(highlight(text.replace("var y", "val y")) > 1)
+    }
+
+}
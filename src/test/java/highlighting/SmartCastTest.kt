@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package highlighting
+
+import com.intellij.psi.util.PsiTreeUtil
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.jetbrains.kotlin.highlighter.semanticanalyzer.getSmartCastTypeName
+import org.jetbrains.kotlin.psi.KtSimpleNameExpression
+import org.jetbrains.kotlin.resolve.KotlinAnalyzer
+import org.netbeans.junit.NbTestCase
+import utils.getSourceFile
+import utils.testProject
+
+class SmartCastTest : NbTestCase("Smart cast test") {
+
+    fun testSmartCastTypeIsRendered() {
+        val ktFile = KotlinPsiManager.INSTANCE.parseTextForDiagnostic(
+                "package main\n\nfun f(x: Any) = if (x is String) x.length else 0", getSourceFile("main", "main.kt"))
+        val bindingContext = KotlinAnalyzer.analyzeFile(testProject, ktFile).analysisResult.bindingContext
+        val references = PsiTreeUtil.collectElementsOfType(ktFile, KtSimpleNameExpression::class.java)
+                .filter { it.getReferencedName() == "x" }
+
+        assertEquals(listOf(null, "kotlin.String"), references.map { getSmartCastTypeName(it, bindingContext) })
+    }
+
+}
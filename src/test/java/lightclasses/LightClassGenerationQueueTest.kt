@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package lightclasses
+
+import java.util.ArrayDeque
+import java.util.concurrent.Executor
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.jetbrains.kotlin.indexer.LightClassGenerationQueue
+import org.jetbrains.kotlin.projectsextensions.KotlinProjectHelper
+import org.jetbrains.kotlin.utils.ProjectUtils
+import org.netbeans.junit.NbTestCase
+import org.openide.filesystems.FileObject
+import utils.getSourceFile
+import utils.testProject
+
+class LightClassGenerationQueueTest : NbTestCase("Light class generation queue test") {
+
+    /**
+     * Collects the tasks of the queue and runs them on the test thread when asked, 
+     * so jobs submitted before [runAll] are all pending together.
+     */
+    private class ManualExecutor : Executor {
+        private val tasks = ArrayDeque<Runnable>()
+        
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+        
+        fun runAll() {
+            while (tasks.isNotEmpty()) {
+                tasks.poll().run()
+            }
+        }
+    }
+    
+    private val executor = ManualExecutor()
+    private val queue = LightClassGenerationQueue(executor)
+
+    private fun submitAll(files: Collection<FileObject>) = 
+            files.forEach { queue.submit(it, ProjectUtils.getKtFile(it), testProject) }
+
+    fun testJobsOfOnePackageAreGeneratedInOneBatch() {
+        val files = KotlinPsiManager.INSTANCE.getFilesByPackage(testProject, "navigation")
+        assertTrue(files.size > 1)
+
+        submitAll(files)
+        assertEquals(files.size, queue.queueDepth)
+        executor.runAll()
+
+        assertEquals(1L, queue.batchCount)
+        assertEquals(files.size.toLong(), queue.completedCount)
+        assertEquals(0, queue.queueDepth)
+        assertNotNull(KotlinProjectHelper.INSTANCE.getLightClassesDirectory(testProject)
+                .getFileObject("navigation/KotlinClass.class"))
+    }
+
+    fun testNewerJobReplacesPendingJob() {
+        val mainFile = getSourceFile("main", "main.kt")
+
+        submitAll(listOf(mainFile, mainFile))
+        assertEquals(1, queue.queueDepth)
+        executor.runAll()
+
+        assertEquals(2L, queue.submittedCount)
+        assertEquals(1L, queue.coalescedCount)
+        assertEquals(1L, queue.completedCount)
+        assertEquals(0L, queue.cancelledCount)
+        assertEquals(0, queue.queueDepth)
+    }
+
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package lightclasses
+
+import java.util.Arrays
+import org.jetbrains.kotlin.analyzer.AnalysisResult
+import org.jetbrains.kotlin.builder.KotlinPsiManager
+import org.jetbrains.kotlin.filesystem.lightclasses.KotlinLightClassGeneration
+import org.jetbrains.kotlin.filesystem.lightclasses.LightClassAbiFingerprint
+import org.jetbrains.kotlin.filesystem.lightclasses.LightClassBuilderFactory
+import org.jetbrains.kotlin.model.KotlinEnvironment
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.NetBeansAnalyzerFacadeForJVM
+import org.netbeans.junit.NbTestCase
+import utils.getSourceFile
+import utils.testProject
+
+/**
+ * Analyzes a generated file of [classes] classes, which is also used by the light class 
+ * generation benchmark.
+ */
+fun analyzeGeneratedModule(classes: Int): Pair<KtFile, AnalysisResult> {
+    val text = "package main\n\n" + (1..classes).joinToString("\n\n") {
+        """
+        |class C$it(val x: Int) : Comparable<C$it> {
+        |    override fun compareTo(other: C$it) = x - other.x
+        |    fun f(list: List<String>): String = list.filter { it.length > $it }.joinToString { it + x }
+        |}""".trimMargin()
+    }
+    val ktFile = KotlinPsiManager.INSTANCE.parseText(text, getSourceFile("main", "main.kt"))!!
+    val result = NetBeansAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegration(testProject,
+            KotlinEnvironment.getEnvironment(testProject).project, listOf(ktFile))
+
+    return ktFile to result.analysisResult
+}
+
+fun generateLightClasses(ktFile: KtFile, analysisResult: AnalysisResult, signaturesOnly: Boolean) =
+        KotlinLightClassGeneration.INSTANCE.buildLightClasses(analysisResult, testProject, listOf(ktFile),
+                LightClassBuilderFactory(signaturesOnly))
+                .factory.asList().associate { it.relativePath to it.asByteArray() }
+
+class LightClassGenerationTest : NbTestCase("Light class generation test") {
+
+    fun testSignatureOnlyClassesKeepAbi() {
+        val (ktFile, analysisResult) = analyzeGeneratedModule(20)
+        val classes = generateLightClasses(ktFile, analysisResult, false)
+        val stubs = generateLightClasses(ktFile, analysisResult, true)
+
+        assertEquals(classes.keys, stubs.keys)
+        for ((path, bytes) in classes) {
+            assertTrue(path, Arrays.equals(LightClassAbiFingerprint.compute(bytes),
+                    LightClassAbiFingerprint.compute(stubs[path]!!)))
+        }
+    }
+
+    fun testSignatureOnlyClassesAreSmaller() {
+        val (ktFile, analysisResult) = analyzeGeneratedModule(20)
+        val classes = generateLightClasses(ktFile, analysisResult, false)
+        val stubs = generateLightClasses(ktFile, analysisResult, true)
+
+        // method bodies are not generated
+        for ((path, bytes) in stubs) {
+            assertTrue(path, bytes.size <= classes[path]!!.size)
+        }
+        assertTrue(stubs.values.sumBy { it.size } < classes.values.sumBy { it.size })
+    }
+
+}
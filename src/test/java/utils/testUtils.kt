@@ -16,9 +16,11 @@
  *******************************************************************************/
 package utils
 
+import javaproject.JavaProject
 import javax.swing.text.Document
 import junit.framework.TestCase.assertNotNull
 import org.jetbrains.kotlin.utils.ProjectUtils
+import org.netbeans.api.project.Project
 import org.openide.filesystems.FileObject
 
 fun getCaret(doc: Document): Int = doc.getText(0,doc.length).indexOf("<caret>")
@@ -33,4 +35,20 @@ fun getDocumentForFileObject(dir: FileObject, fileName: String): Document {
     return getDocumentForFileObject(file)
 }
 
-fun getAllKtFilesInFolder(folder: FileObject) = folder.children.filter{ it.hasExt("kt") }
\ No newline at end of file
+fun getAllKtFilesInFolder(folder: FileObject) = folder.children.filter{ it.hasExt("kt") }
+
+val testProject: Project
+    get() = JavaProject.INSTANCE.javaProject
+
+/**
+ * Returns a file of the test project by its path relative to the {@code src} folder.
+ */
+fun getSourceFile(vararg path: String): FileObject {
+    val file = path.fold<String, FileObject?>(testProject.projectDirectory.getFileObject("src")) { dir, name ->
+        dir?.getFileObject(name)
+    }
+    
+    assertNotNull(file)
+    
+    return file!!
+}